@@ -19,12 +19,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.aludratest.cloud.app.CloudManagerApp;
 import org.aludratest.cloud.config.ConfigException;
 import org.aludratest.cloud.config.MainPreferences;
@@ -34,6 +38,8 @@ import org.aludratest.cloud.config.PreferencesListener;
 import org.aludratest.cloud.config.SimplePreferences;
 import org.aludratest.cloud.impl.ImplConstants;
 import org.aludratest.cloud.impl.config.MainPreferencesImpl;
+import org.aludratest.cloud.impl.metrics.RequestMetrics;
+import org.aludratest.cloud.impl.metrics.ResourceGauges;
 import org.apache.commons.io.IOUtils;
 import org.codehaus.plexus.DefaultPlexusContainer;
 import org.codehaus.plexus.PlexusContainer;
@@ -55,6 +61,18 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 
 	private static final String CONFIG_FILENAME = "acm.config";
 
+	private static final String REQUEST_LOG_SPILL_FILENAME = "requestlog.spill";
+
+	private static final String REQUEST_LOG_JOURNAL_DIRNAME = "requestlog-journal";
+
+	private static final String REQUEST_LOG_SINK_DERBY = "derby";
+
+	private static final String REQUEST_LOG_SINK_JOURNAL = "journal";
+
+	private static final String REQUEST_LOGGER_MBEAN_NAME = "org.aludratest.cloud:type=RequestLogger";
+
+	private static final String REQUEST_METRICS_MBEAN_NAME = "org.aludratest.cloud:type=RequestMetrics";
+
 	private static CloudManagerApplicationHolder instance;
 
 	private PlexusContainer plexus;
@@ -69,12 +87,20 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 
 	private DatabaseRequestLogger requestLogger;
 
+	private RequestLogReports requestLogReports;
+
+	private RequestMetrics requestMetrics;
+
+	private ResourceGauges resourceGauges;
+
 	private Thread requestLoggerThread;
 
 	private ScheduledExecutorService saveScheduler;
 
 	private ScheduledFuture<?> scheduledSave;
 
+	private ScheduledExecutorService retentionScheduler;
+
 	private CloudManagerApplicationHolder() {
 	}
 
@@ -114,11 +140,49 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 		plexus = new DefaultPlexusContainer();
 		saveScheduler = Executors.newScheduledThreadPool(1);
 		application = plexus.lookup(CloudManagerApp.class);
+		requestMetrics = plexus.lookup(RequestMetrics.class);
+		resourceGauges = plexus.lookup(ResourceGauges.class);
 
 		rootPreferences = new MainPreferencesImpl(null);
 		((MainPreferencesImpl) rootPreferences).applyPreferences(readConfig());
 		attachPreferencesListener(rootPreferences);
 
+		RequestLogSink requestLogSink;
+		if (REQUEST_LOG_SINK_JOURNAL.equalsIgnoreCase(System.getProperty("acm.requestlog.sink", REQUEST_LOG_SINK_DERBY))) {
+			File journalDir = new File(configFile.getParentFile(), REQUEST_LOG_JOURNAL_DIRNAME);
+			LOG.info("Writing request log to journal in " + journalDir.getAbsolutePath() + ", not starting up Derby Database");
+			try {
+				requestLogSink = new JournalRequestLogSink(journalDir);
+			}
+			catch (IOException e) {
+				throw new ConfigException("Could not initialize request log journal", e);
+			}
+		}
+		else {
+			requestLogSink = startLogDatabase();
+		}
+
+		requestLogger = new DatabaseRequestLogger(requestLogSink, new File(configFile.getParentFile(), REQUEST_LOG_SPILL_FILENAME));
+		requestLoggerThread = new Thread(requestLogger);
+		requestLoggerThread.start();
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(requestLogger, new ObjectName(REQUEST_LOGGER_MBEAN_NAME));
+		}
+		catch (JMException e) {
+			LOG.warn("Could not register request logger in JMX", e);
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(requestMetrics, new ObjectName(REQUEST_METRICS_MBEAN_NAME));
+		}
+		catch (JMException e) {
+			LOG.warn("Could not register request metrics in JMX", e);
+		}
+
+		application.start(rootPreferences);
+	}
+
+	private RequestLogSink startLogDatabase() throws ConfigException {
 		String sDbPort = System.getProperty("derby.port", "1527");
 		Integer dbPort = null;
 		if (sDbPort != null) {
@@ -136,15 +200,17 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 
 		try {
 			logDatabase = new LogDatabase(configFile.getParentFile(), dbPort);
-			requestLogger = new DatabaseRequestLogger(logDatabase);
-			requestLoggerThread = new Thread(requestLogger);
-			requestLoggerThread.start();
+			RequestLogSink sink = new DerbyRequestLogSink(logDatabase);
+			requestLogReports = new RequestLogReports(logDatabase);
+			if (RequestLogRetentionJob.isEnabled()) {
+				retentionScheduler = Executors.newSingleThreadScheduledExecutor();
+				retentionScheduler.scheduleWithFixedDelay(new RequestLogRetentionJob(logDatabase), 5, 60, TimeUnit.MINUTES);
+			}
+			return sink;
 		}
 		catch (Exception e) {
 			throw new ConfigException("Could not initialize internal Derby Database", e);
 		}
-
-		application.start(rootPreferences);
 	}
 
 	private void attachPreferencesListener(MainPreferences preferences) {
@@ -166,8 +232,30 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 	private void internalShutdown() {
 		application.shutdown();
 		saveScheduler.shutdown();
+		if (retentionScheduler != null) {
+			retentionScheduler.shutdownNow();
+			try {
+				retentionScheduler.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				// ignore
+			}
+		}
 		plexus.dispose();
 
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(REQUEST_LOGGER_MBEAN_NAME));
+		}
+		catch (JMException e) {
+			LOG.warn("Could not unregister request logger from JMX", e);
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(REQUEST_METRICS_MBEAN_NAME));
+		}
+		catch (JMException e) {
+			LOG.warn("Could not unregister request metrics from JMX", e);
+		}
+
 		requestLoggerThread.interrupt();
 		try {
 			requestLoggerThread.join(10000);
@@ -175,7 +263,9 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 		catch (InterruptedException e) {
 			// ignore
 		}
-		logDatabase.shutdown();
+		if (logDatabase != null) {
+			logDatabase.shutdown();
+		}
 	}
 
 	/**
@@ -200,12 +290,40 @@ public class CloudManagerApplicationHolder implements PreferencesListener {
 	/**
 	 * Returns the database for logging resource access.
 	 * 
-	 * @return The database for logging resource access.
+	 * @return The database for logging resource access, or <code>null</code> if the request log is written to a journal
+	 *         (system property <code>acm.requestlog.sink</code> is <code>journal</code>).
 	 */
 	public LogDatabase getDatabase() {
 		return logDatabase;
 	}
 
+	/**
+	 * Returns the aggregate reports over the request log.
+	 * 
+	 * @return The aggregate reports over the request log, or <code>null</code> if the request log is written to a journal.
+	 */
+	public RequestLogReports getRequestLogReports() {
+		return requestLogReports;
+	}
+
+	/**
+	 * Returns the in-memory metrics of resource requests.
+	 * 
+	 * @return The in-memory metrics of resource requests.
+	 */
+	public RequestMetrics getRequestMetrics() {
+		return requestMetrics;
+	}
+
+	/**
+	 * Returns the live counters of resources per resource group and state.
+	 * 
+	 * @return The live counters of resources per resource group and state.
+	 */
+	public ResourceGauges getResourceGauges() {
+		return resourceGauges;
+	}
+
 	/**
 	 * Returns the directory which is used as the configuration directory for the application. Other classes (components) may
 	 * store their configuration files here.
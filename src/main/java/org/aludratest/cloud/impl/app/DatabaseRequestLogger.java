@@ -15,175 +15,521 @@
  */
 package org.aludratest.cloud.impl.app;
 
-import java.sql.SQLException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-import javax.sql.rowset.CachedRowSet;
-
+import org.aludratest.cloud.impl.app.RequestLogCommand.CommandType;
 import org.aludratest.cloud.user.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Runnable which queues (modifying) database commands to not slow down application by slow database performance.
+ * Runnable which queues (modifying) database commands to not slow down application by slow database performance. <br>
+ * Queued commands are written in batches to a {@link RequestLogSink}, e.g. the internal Derby database, where each batch is
+ * committed in one transaction. A batch is written as soon as it is full, or when the first command of the batch has been
+ * waiting for the linger time. Batch size and linger time can be configured using the system properties
+ * <code>acm.requestlog.batchSize</code> (default 100) and <code>acm.requestlog.lingerMillis</code> (default 200). All commands
+ * for the same request within one batch are merged into a single row, i.e. a single INSERT or UPDATE. <br>
+ * The command queue is bounded (system property <code>acm.requestlog.queueSize</code>, default 10000). What happens when the
+ * queue is full is controlled by the system property <code>acm.requestlog.overflowPolicy</code>:
+ * <ul>
+ * <li><code>SPILL</code> (default): Commands are appended to a local spill file, which is replayed, in order, as soon as the
+ * queue has been drained. A spill file left over from a previous run is replayed on startup.</li>
+ * <li><code>DROP_OLDEST</code>: The oldest queued command is discarded.</li>
+ * <li><code>BLOCK</code>: The calling thread waits until there is room in the queue.</li>
+ * </ul>
  * 
  * @author falbrech
  * 
  */
-public class DatabaseRequestLogger implements Runnable {
+public class DatabaseRequestLogger implements Runnable, DatabaseRequestLoggerMBean {
 
-	// @formatter:off
-	/* 
-	 * ==== Database schema version history ====
-	 * 
-	 * Version     Date        Author     Description
-	 *   1.0    2015-08-11    falbrech    Initial schema. Copied from previous HSDG software.
-	 *    
-	 */
-	// @formatter:on
+	private static final Logger LOG = LoggerFactory.getLogger(DatabaseRequestLogger.class);
 
-	/**
-	 * The current schema version of the database module (software-side). This information is used when auto-updates are
-	 * performed, i.e. the database contains a different version information than this.
-	 */
-	private static final int[] DB_SCHEMA_VERSION = { 1, 0 };
+	private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("acm.requestlog.batchSize", 100).intValue());
 
-	private static final Logger LOG = LoggerFactory.getLogger(DatabaseRequestLogger.class);
+	private static final long LINGER_MILLIS = Long.getLong("acm.requestlog.lingerMillis", 200).longValue();
+
+	private static final int QUEUE_CAPACITY = Math.max(1, Integer.getInteger("acm.requestlog.queueSize", 10000).intValue());
+
+	private static final OverflowPolicy OVERFLOW_POLICY = readOverflowPolicy();
+
+	private RequestLogSink sink;
+
+	private BlockingQueue<RequestLogCommand> commandQueue = new ArrayBlockingQueue<RequestLogCommand>(QUEUE_CAPACITY);
 
-	private LogDatabase database;
+	private volatile boolean stopped;
 
-	private ConcurrentLinkedQueue<DatabaseCommand> commandQueue = new ConcurrentLinkedQueue<DatabaseCommand>();
+	private final File spillFile;
 
-	private Map<Long, Long> virtualToDbRequestIds = new ConcurrentHashMap<Long, Long>();
+	private final Object spillLock = new Object();
 
-	private final DateFormat DF_TIMESTAMP = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	// guarded by spillLock; non-null while commands are being spilled
+	private DataOutputStream spillOut;
 
-	private AtomicLong nextVirtualRequestId = new AtomicLong();
+	// guarded by spillLock
+	private int spillFileCommandCount;
 
+	private AtomicInteger spillBacklog = new AtomicInteger();
+
+	private AtomicLong droppedCommandCount = new AtomicLong();
+
+	private AtomicLong spilledCommandCount = new AtomicLong();
+
+	private AtomicLong writtenCommandCount = new AtomicLong();
+
+	private AtomicLong mergedCommandCount = new AtomicLong();
+
+	private AtomicLong failedBatchCount = new AtomicLong();
+
+	// flush statistics, only written by logger thread
+	private volatile long flushCount;
+
+	private volatile long totalFlushNanos;
+
+	private volatile long maxFlushNanos;
+
+	private volatile long lastFlushNanos;
 
 	/**
 	 * Creates a new database request logger object. Use a Thread object to execute this logger. Interrupt that thread to
 	 * terminate the logger.
 	 * 
-	 * @param database
-	 *            Database to write log entries to.
-	 * 
-	 * @throws SQLException
-	 *             If the database could not be created or initialized with required tables, or has an incompatible schema
-	 *             version.
+	 * @param sink
+	 *            Sink to write log entries to.
+	 * @param spillFile
+	 *            File to append commands to when the command queue is full and the overflow policy is <code>SPILL</code>.
 	 */
-	public DatabaseRequestLogger(LogDatabase database) throws SQLException {
-		this.database = database;
-		DF_TIMESTAMP.setTimeZone(TimeZone.getTimeZone("UTC"));
+	DatabaseRequestLogger(RequestLogSink sink, File spillFile) {
+		this.sink = sink;
+		this.spillFile = spillFile;
+
+		// replay commands left over from a previous run
+		File replayFile = getReplayFile();
+		if (replayFile.isFile()) {
+			replaySpillFile(replayFile, -1);
+		}
+		if (spillFile.isFile()) {
+			replaySpillFile(spillFile, -1);
+		}
+	}
 
-		if (!database.isDatabaseExisting()) {
-			database.createDatabase();
-			createBasicTables();
+	private static OverflowPolicy readOverflowPolicy() {
+		String value = System.getProperty("acm.requestlog.overflowPolicy", OverflowPolicy.SPILL.name());
+		try {
+			return OverflowPolicy.valueOf(value.trim().toUpperCase(Locale.US));
+		}
+		catch (IllegalArgumentException e) {
+			LOG.warn("Invalid request log overflow policy " + value + ", using " + OverflowPolicy.SPILL);
+			return OverflowPolicy.SPILL;
 		}
-		checkTablesVersion();
 	}
 
-	private void enqueue(DatabaseCommand command) {
-		commandQueue.add(command);
-		synchronized (this) {
-			notify();
+	private void enqueue(RequestLogCommand command) {
+		// while spilling, all commands go to the spill file, to keep them in order
+		if (OVERFLOW_POLICY == OverflowPolicy.SPILL && spill(command, false)) {
+			return;
+		}
+		if (commandQueue.offer(command)) {
+			return;
+		}
+
+		switch (OVERFLOW_POLICY) {
+			case DROP_OLDEST:
+				while (!commandQueue.offer(command)) {
+					if (commandQueue.poll() != null) {
+						droppedCommandCount.incrementAndGet();
+					}
+				}
+				break;
+			case BLOCK:
+				try {
+					while (!commandQueue.offer(command, 100, TimeUnit.MILLISECONDS)) {
+						if (stopped) {
+							droppedCommandCount.incrementAndGet();
+							return;
+						}
+					}
+				}
+				catch (InterruptedException e) {
+					droppedCommandCount.incrementAndGet();
+					Thread.currentThread().interrupt();
+				}
+				break;
+			case SPILL:
+				if (!spill(command, true)) {
+					droppedCommandCount.incrementAndGet();
+				}
+				break;
 		}
 	}
 
-	private void executeCommand(DatabaseCommand command) throws SQLException {
-		if (command.create) {
-			Long result = database.executeStatement(command.sql, new int[] { 1 });
-			virtualToDbRequestIds.put(command.mappingRequestId, result);
+	private boolean spill(RequestLogCommand command, boolean start) {
+		synchronized (spillLock) {
+			if (spillOut == null) {
+				if (!start) {
+					return false;
+				}
+				try {
+					spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile, true)));
+				}
+				catch (IOException e) {
+					LOG.error("Could not open request log spill file " + spillFile.getAbsolutePath(), e);
+					return false;
+				}
+			}
+
+			try {
+				command.writeTo(spillOut);
+				spillOut.flush();
+			}
+			catch (IOException e) {
+				LOG.error("Could not write to request log spill file " + spillFile.getAbsolutePath(), e);
+				return false;
+			}
+			spillFileCommandCount++;
+			spillBacklog.incrementAndGet();
+			spilledCommandCount.incrementAndGet();
+			return true;
 		}
-		else {
-			Long dbId = virtualToDbRequestIds.get(command.mappingRequestId);
-			if (dbId == null) {
-				throw new SQLException("No database ID known to update request " + command.mappingRequestId);
+	}
+
+	/**
+	 * Moves the current spill file out of the way, so new commands are queued in memory again. Only called by the logger thread,
+	 * and only when the command queue is empty, so the spilled commands are older than any command queued afterwards.
+	 */
+	private void replaySpilledCommands() {
+		File replayFile;
+		int commandCount;
+		synchronized (spillLock) {
+			if (spillOut == null) {
+				return;
+			}
+			try {
+				spillOut.close();
+			}
+			catch (IOException e) {
+				LOG.warn("Could not close request log spill file " + spillFile.getAbsolutePath(), e);
+			}
+			spillOut = null;
+			commandCount = spillFileCommandCount;
+			spillFileCommandCount = 0;
+
+			replayFile = getReplayFile();
+			if (replayFile.exists() && !replayFile.delete()) {
+				LOG.error("Could not delete old request log replay file " + replayFile.getAbsolutePath());
+				return;
+			}
+			if (!spillFile.renameTo(replayFile)) {
+				LOG.error("Could not rename request log spill file " + spillFile.getAbsolutePath());
+				return;
+			}
+		}
+
+		replaySpillFile(replayFile, commandCount);
+	}
+
+	private void replaySpillFile(File file, int expectedCommandCount) {
+		LOG.info("Replaying request log commands from " + file.getAbsolutePath());
+		List<RequestLogCommand> batch = new ArrayList<RequestLogCommand>(BATCH_SIZE);
+		int readCount = 0;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			while (true) {
+				RequestLogCommand command;
+				try {
+					command = RequestLogCommand.readFrom(in);
+				}
+				catch (EOFException e) {
+					break;
+				}
+				readCount++;
+				batch.add(command);
+				if (batch.size() == BATCH_SIZE) {
+					writeBatch(batch);
+					batch.clear();
+				}
+			}
+		}
+		catch (IOException e) {
+			LOG.error("Could not read request log spill file " + file.getAbsolutePath() + ", skipping remaining commands", e);
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		writeBatch(batch);
+
+		if (expectedCommandCount >= 0) {
+			spillBacklog.addAndGet(-expectedCommandCount);
+			if (readCount < expectedCommandCount) {
+				droppedCommandCount.addAndGet(expectedCommandCount - readCount);
 			}
-			database.executeStatement(command.sql.replace(":dbId", dbId.toString()));
 		}
+		if (!file.delete()) {
+			LOG.error("Could not delete replayed request log spill file " + file.getAbsolutePath());
+		}
+	}
+
+	private File getReplayFile() {
+		return new File(spillFile.getPath() + ".replay");
 	}
 
 	@Override
 	public void run() {
-		while (!Thread.interrupted()) {
-			while (commandQueue.isEmpty()) {
-				synchronized (this) {
-					try {
-						wait();
+		List<RequestLogCommand> batch = new ArrayList<RequestLogCommand>(BATCH_SIZE);
+		while (true) {
+			try {
+				collectBatch(batch);
+			}
+			catch (InterruptedException e) {
+				// write what is left, then terminate
+				stopped = true;
+				writeBatch(batch);
+				batch.clear();
+				while (commandQueue.drainTo(batch, BATCH_SIZE) > 0) {
+					writeBatch(batch);
+					batch.clear();
+				}
+				replaySpilledCommands();
+				while (commandQueue.drainTo(batch, BATCH_SIZE) > 0) {
+					writeBatch(batch);
+					batch.clear();
+				}
+				sink.close();
+				return;
+			}
+
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+
+	private void collectBatch(List<RequestLogCommand> batch) throws InterruptedException {
+		RequestLogCommand command = commandQueue.poll();
+		if (command == null) {
+			// queue is drained, so spilled commands are next
+			replaySpilledCommands();
+			command = commandQueue.take();
+		}
+		batch.add(command);
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_MILLIS);
+		while (batch.size() < BATCH_SIZE) {
+			commandQueue.drainTo(batch, BATCH_SIZE - batch.size());
+			if (batch.size() == BATCH_SIZE) {
+				return;
+			}
+
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+			command = commandQueue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (command == null) {
+				return;
+			}
+			batch.add(command);
+		}
+	}
+
+	private void writeBatch(List<RequestLogCommand> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		long startNanos = System.nanoTime();
+		Collection<RequestLogRow> rows = mergeCommands(batch);
+		mergedCommandCount.addAndGet(batch.size() - rows.size());
+
+		boolean committed = sink.writeRows(rows);
+		if (committed) {
+			writtenCommandCount.addAndGet(batch.size());
+		}
+		else {
+			failedBatchCount.incrementAndGet();
+			if (rows.size() > 1) {
+				// do not let a single bad row (e.g. a duplicate request ID) discard the whole batch
+				for (RequestLogRow row : rows) {
+					if (sink.writeRows(Collections.singletonList(row))) {
+						writtenCommandCount.addAndGet(row.commandCount);
 					}
-					catch (InterruptedException e) {
-						return;
+					else {
+						droppedCommandCount.addAndGet(row.commandCount);
 					}
 				}
 			}
+			else {
+				droppedCommandCount.addAndGet(batch.size());
+			}
+		}
+		recordFlush(System.nanoTime() - startNanos, committed);
+	}
 
-			while (!commandQueue.isEmpty()) {
-				DatabaseCommand command = commandQueue.poll();
-				try {
-					executeCommand(command);
-				}
-				catch (SQLException e) {
-					LOG.error("Could not execute log database statement", e);
-				}
-				if (Thread.interrupted()) {
-					return;
-				}
+	/**
+	 * Merges all commands for the same request into one row, so a request which is created, started and finished within one
+	 * batch is written with one single INSERT, and a request which is started and finished within one batch is written with one
+	 * single UPDATE.
+	 */
+	private static Collection<RequestLogRow> mergeCommands(List<RequestLogCommand> batch) {
+		Map<String, RequestLogRow> rows = new LinkedHashMap<String, RequestLogRow>();
+		for (RequestLogCommand command : batch) {
+			RequestLogRow row = rows.get(command.requestId);
+			if (row == null) {
+				row = new RequestLogRow(command.requestId);
+				rows.put(command.requestId, row);
 			}
+			row.merge(command);
+		}
+		return rows.values();
+	}
+
+	private void recordFlush(long nanos, boolean committed) {
+		if (committed) {
+			flushCount++;
+			totalFlushNanos += nanos;
+		}
+		lastFlushNanos = nanos;
+		if (nanos > maxFlushNanos) {
+			maxFlushNanos = nanos;
 		}
 	}
 
+	@Override
+	public int getQueueSize() {
+		return commandQueue.size();
+	}
+
+	@Override
+	public int getQueueCapacity() {
+		return QUEUE_CAPACITY;
+	}
+
+	@Override
+	public String getOverflowPolicy() {
+		return OVERFLOW_POLICY.name();
+	}
+
+	@Override
+	public int getSpillBacklog() {
+		return spillBacklog.get();
+	}
+
+	@Override
+	public long getSpilledCommandCount() {
+		return spilledCommandCount.get();
+	}
+
+	@Override
+	public long getDroppedCommandCount() {
+		return droppedCommandCount.get();
+	}
+
+	@Override
+	public long getWrittenCommandCount() {
+		return writtenCommandCount.get();
+	}
+
+	@Override
+	public long getMergedCommandCount() {
+		return mergedCommandCount.get();
+	}
+
+	@Override
+	public long getFailedBatchCount() {
+		return failedBatchCount.get();
+	}
+
+	@Override
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	@Override
+	public double getAverageFlushMillis() {
+		long count = flushCount;
+		return count == 0 ? 0 : totalFlushNanos / (count * 1000000.0);
+	}
+
+	@Override
+	public long getMaxFlushMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxFlushNanos);
+	}
+
+	@Override
+	public long getLastFlushMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastFlushNanos);
+	}
+
 	/**
-	 * Creates a new log entry for a resource request. A unique ID is automatically assigned and returned. <br>
+	 * Creates a new log entry for a resource request. <br>
 	 * The database INSERT statement is enqueued into the local command queue and executed as soon as possible.
 	 * 
+	 * @param requestId
+	 *            Unique ID of the resource request, as assigned by the application. This ID is the key of the log entry and is
+	 *            required for calling the <code>update*</code> methods. Must not be longer than 40 characters.
 	 * @param user
 	 *            User who issued the resource request.
 	 * @param jobName
 	 *            Job name passed by the user, if any.
-	 * 
-	 * @return The unique ID automatically assigned to the log entry. This ID is required for calling the <code>update*</code>
-	 *         methods.
 	 */
-	public long createRequestLog(User user, String jobName) {
-		long virtualId = nextVirtualRequestId.incrementAndGet();
-
-		String sql = "INSERT INTO acm_request (start_wait_time_utc, user_name, user_source, job_name) VALUES ("
-				+ getCurrentUTCTimestampExpr() + ", '" + user.getName() + "', '" + user.getSource() + "', '" + jobName + "')";
-
-		enqueue(new DatabaseCommand(sql, virtualId, true));
-		return virtualId;
+	public void createRequestLog(String requestId, User user, String jobName) {
+		RequestLogCommand command = new RequestLogCommand(CommandType.CREATE, requestId);
+		command.userName = user.getName();
+		command.userSource = user.getSource();
+		command.jobName = jobName;
+		enqueue(command);
 	}
 
 	/**
 	 * Updates the given log entry when a resource has been assigned to the request.
 	 * 
-	 * @param id
-	 *            Log entry ID, as returned by {@link #createRequestLog(User, String)}.
+	 * @param requestId
+	 *            ID of the resource request, as passed to {@link #createRequestLog(String, User, String)}.
 	 * @param resourceType
 	 *            Type of the resource assigned to the request.
 	 * @param resource
 	 *            The resource assigned to the request. The String representation (<code>toString()</code>) of the resource is
 	 *            logged to the database.
 	 */
-	public void updateRequestLogWorkStarted(long id, String resourceType, String resource) {
-		String sql = "UPDATE acm_request SET start_work_time_utc = " + getCurrentUTCTimestampExpr() + ", resource_type = '"
-				+ resourceType + "', received_resource = '" + resource + "' WHERE request_id = :dbId";
-		enqueue(new DatabaseCommand(sql, id, false));
+	public void updateRequestLogWorkStarted(String requestId, String resourceType, String resource) {
+		RequestLogCommand command = new RequestLogCommand(CommandType.WORK_STARTED, requestId);
+		command.resourceType = resourceType;
+		command.resource = resource;
+		enqueue(command);
 	}
 
 	/**
 	 * Updates the given log entry when an assigned resource has been released.
 	 * 
-	 * @param id
-	 *            Log entry ID, as returned by {@link #createRequestLog(User, String)}.
+	 * @param requestId
+	 *            ID of the resource request, as passed to {@link #createRequestLog(String, User, String)}.
 	 * @param status
 	 *            Arbitrary status of the associated request, could e.g. be <code>SUCCESS</code> or <code>ABORTED</code>. This
 	 *            depends on the request handler implementation.
@@ -191,80 +537,16 @@ public class DatabaseRequestLogger implements Runnable {
 	 *            Number of active (<code>IN_USE</code>) left of the associated resource type. This is logged in an extra field
 	 *            and can be used for easy "workload" reports.
 	 */
-	public void updateRequestLogWorkDone(long id, String status, int cntActiveResourcesLeft) {
-		String sql = "UPDATE acm_request SET end_work_time_utc = " + getCurrentUTCTimestampExpr() + ", end_work_status = '"
-				+ status + "', cnt_active_res_after_work = " + cntActiveResourcesLeft + " WHERE request_id = :dbId";
-		enqueue(new DatabaseCommand(sql, id, false));
+	public void updateRequestLogWorkDone(String requestId, String status, int cntActiveResourcesLeft) {
+		RequestLogCommand command = new RequestLogCommand(CommandType.WORK_DONE, requestId);
+		command.status = status;
+		command.cntActiveResources = cntActiveResourcesLeft;
+		enqueue(command);
 	}
 
-	private void checkTablesVersion() throws SQLException {
-		// check if there is a previous version; upgrade in this case
-		String sql = "SELECT major, minor FROM acm_version";
-		CachedRowSet rs = database.populateQuery(sql);
-		if (!rs.next()) {
-			throw new SQLException("acm_version is empty");
-		}
-
-		int major = rs.getInt(1);
-		int minor = rs.getInt(2);
 
-		if (major != DB_SCHEMA_VERSION[0] || minor != DB_SCHEMA_VERSION[1]) {
-			throw new SQLException("Unsupported version of database schema: " + major + "." + minor);
-		}
-	}
-
-	private void createBasicTables() throws SQLException {
-		String sql = "CREATE TABLE acm_version (major INTEGER NOT NULL, minor INTEGER NOT NULL)";
-		database.executeStatement(sql);
-
-		// @formatter:off
-		sql = "CREATE TABLE acm_request (request_id BIGINT GENERATED ALWAYS AS IDENTITY, "
-			+ "start_wait_time_utc TIMESTAMP, "
-			+ "start_work_time_utc TIMESTAMP, "
-			+ "end_work_time_utc TIMESTAMP, "
-			+ "user_name VARCHAR(50), "
-			+ "user_source VARCHAR(100), "
-			+ "job_name VARCHAR(400), "
-			+ "received_resource VARCHAR(400), "
-			+ "resource_type VARCHAR(40), "
-			+ "end_work_status VARCHAR(20), "
-			+ "cnt_active_res_after_work INTEGER)";
-		// @formatter:on
-
-		database.executeStatement(sql);
-
-		writeAcmVersion();
-	}
-
-	private void writeAcmVersion() throws SQLException {
-		String sql = "DELETE FROM acm_version";
-		database.executeStatement(sql);
-
-		sql = "INSERT INTO acm_version VALUES (" + DB_SCHEMA_VERSION[0] + ", " + DB_SCHEMA_VERSION[1] + ")";
-		database.executeStatement(sql);
-	}
-
-	private String getCurrentUTCTimestampExpr() {
-		return getUTCTimestampExpr(new Date());
-	}
-
-	private String getUTCTimestampExpr(Date dt) {
-		return "TIMESTAMP('" + DF_TIMESTAMP.format(dt) + "')";
-	}
-
-	private static class DatabaseCommand {
-
-		private String sql;
-
-		private boolean create;
-
-		private Long mappingRequestId;
-
-		public DatabaseCommand(String sql, long mappingRequestId, boolean create) {
-			this.sql = sql;
-			this.mappingRequestId = mappingRequestId;
-			this.create = create;
-		}
+	private static enum OverflowPolicy {
+		DROP_OLDEST, BLOCK, SPILL
 	}
 
 }
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request log sink writing to the <code>acm_request</code> table of the internal Derby database. Creates the required tables
+ * if the database does not exist yet, and migrates older schema versions. Each batch of rows is written using prepared
+ * statement batches, and is committed in one transaction.
+ */
+class DerbyRequestLogSink implements RequestLogSink {
+
+	// @formatter:off
+	/* 
+	 * ==== Database schema version history ====
+	 * 
+	 * Version     Date        Author     Description
+	 *   1.0    2015-08-11    falbrech    Initial schema. Copied from previous HSDG software.
+	 *   1.1    2026-10-16                request_id is the application-assigned request key (VARCHAR primary key) instead
+	 *                                    of a generated identity. Existing IDs are migrated to "legacy-<id>".
+	 *   1.2    2026-10-16                Indexes on start_wait_time_utc, user_name and resource_type of acm_request, for
+	 *                                    reporting over long time ranges.
+	 *   1.3    2026-10-16                acm_request_hourly table for request log entries rolled up by the retention job.
+	 *    
+	 */
+	// @formatter:on
+
+	/**
+	 * The current schema version of the database module (software-side). This information is used when auto-updates are
+	 * performed, i.e. the database contains a different version information than this.
+	 */
+	private static final int[] DB_SCHEMA_VERSION = { 1, 3 };
+
+	private static final Logger LOG = LoggerFactory.getLogger(DerbyRequestLogSink.class);
+
+	private static final String SQL_INSERT = "INSERT INTO acm_request (request_id, start_wait_time_utc, start_work_time_utc, "
+			+ "end_work_time_utc, user_name, user_source, job_name, received_resource, resource_type, end_work_status, "
+			+ "cnt_active_res_after_work) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SQL_UPDATE_WORK_STARTED = "UPDATE acm_request SET start_work_time_utc = ?, resource_type = ?, "
+			+ "received_resource = ? WHERE request_id = ?";
+
+	private static final String SQL_UPDATE_WORK_DONE = "UPDATE acm_request SET end_work_time_utc = ?, end_work_status = ?, "
+			+ "cnt_active_res_after_work = ? WHERE request_id = ?";
+
+	private static final String SQL_UPDATE_WORK_STARTED_AND_DONE = "UPDATE acm_request SET start_work_time_utc = ?, "
+			+ "resource_type = ?, received_resource = ?, end_work_time_utc = ?, end_work_status = ?, "
+			+ "cnt_active_res_after_work = ? WHERE request_id = ?";
+
+	private LogDatabase database;
+
+	private final Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+	/**
+	 * Creates a new Derby request log sink.
+	 * 
+	 * @param database
+	 *            Database to write log entries to.
+	 * 
+	 * @throws SQLException
+	 *             If the database could not be created or initialized with required tables, or has an incompatible schema
+	 *             version.
+	 */
+	DerbyRequestLogSink(LogDatabase database) throws SQLException {
+		this.database = database;
+
+		if (!database.isDatabaseExisting()) {
+			database.createDatabase();
+			createBasicTables();
+		}
+		checkTablesVersion();
+	}
+
+	@Override
+	public boolean writeRows(Collection<RequestLogRow> rows) {
+		Connection connection = null;
+		PreparedStatement insert = null;
+		PreparedStatement workStarted = null;
+		PreparedStatement workDone = null;
+		PreparedStatement workStartedAndDone = null;
+		try {
+			connection = database.getConnection();
+			connection.setAutoCommit(false);
+
+			for (RequestLogRow row : rows) {
+				if (row.create != null) {
+					if (insert == null) {
+						insert = connection.prepareStatement(SQL_INSERT);
+					}
+					insert.setString(1, row.requestId);
+					insert.setTimestamp(2, row.create.timestamp, utcCalendar);
+					setTimestamp(insert, 3, row.workStarted == null ? null : row.workStarted.timestamp);
+					setTimestamp(insert, 4, row.workDone == null ? null : row.workDone.timestamp);
+					insert.setString(5, row.create.userName);
+					insert.setString(6, row.create.userSource);
+					insert.setString(7, row.create.jobName);
+					insert.setString(8, row.workStarted == null ? null : row.workStarted.resource);
+					insert.setString(9, row.workStarted == null ? null : row.workStarted.resourceType);
+					insert.setString(10, row.workDone == null ? null : row.workDone.status);
+					if (row.workDone == null) {
+						insert.setNull(11, Types.INTEGER);
+					}
+					else {
+						insert.setInt(11, row.workDone.cntActiveResources);
+					}
+					insert.addBatch();
+				}
+				else if (row.workStarted != null && row.workDone != null) {
+					if (workStartedAndDone == null) {
+						workStartedAndDone = connection.prepareStatement(SQL_UPDATE_WORK_STARTED_AND_DONE);
+					}
+					workStartedAndDone.setTimestamp(1, row.workStarted.timestamp, utcCalendar);
+					workStartedAndDone.setString(2, row.workStarted.resourceType);
+					workStartedAndDone.setString(3, row.workStarted.resource);
+					workStartedAndDone.setTimestamp(4, row.workDone.timestamp, utcCalendar);
+					workStartedAndDone.setString(5, row.workDone.status);
+					workStartedAndDone.setInt(6, row.workDone.cntActiveResources);
+					workStartedAndDone.setString(7, row.requestId);
+					workStartedAndDone.addBatch();
+				}
+				else if (row.workStarted != null) {
+					if (workStarted == null) {
+						workStarted = connection.prepareStatement(SQL_UPDATE_WORK_STARTED);
+					}
+					workStarted.setTimestamp(1, row.workStarted.timestamp, utcCalendar);
+					workStarted.setString(2, row.workStarted.resourceType);
+					workStarted.setString(3, row.workStarted.resource);
+					workStarted.setString(4, row.requestId);
+					workStarted.addBatch();
+				}
+				else if (row.workDone != null) {
+					if (workDone == null) {
+						workDone = connection.prepareStatement(SQL_UPDATE_WORK_DONE);
+					}
+					workDone.setTimestamp(1, row.workDone.timestamp, utcCalendar);
+					workDone.setString(2, row.workDone.status);
+					workDone.setInt(3, row.workDone.cntActiveResources);
+					workDone.setString(4, row.requestId);
+					workDone.addBatch();
+				}
+			}
+
+			// updates of a request are always queued after its creation, so INSERTs must be executed first. WORK_STARTED
+			// updates must be executed before WORK_DONE updates, which are only queued after the work has started.
+			if (insert != null) {
+				insert.executeBatch();
+			}
+			if (workStartedAndDone != null) {
+				workStartedAndDone.executeBatch();
+			}
+			if (workStarted != null) {
+				workStarted.executeBatch();
+			}
+			if (workDone != null) {
+				workDone.executeBatch();
+			}
+			connection.commit();
+			return true;
+		}
+		catch (SQLException e) {
+			if (rows.size() == 1) {
+				LOG.error("Could not write log database entry for request " + rows.iterator().next().requestId, e);
+			}
+			else {
+				LOG.error("Could not write batch of " + rows.size() + " log database entries", e);
+			}
+			if (connection != null) {
+				try {
+					connection.rollback();
+				}
+				catch (SQLException ee) {
+					// ignore
+				}
+			}
+			return false;
+		}
+		finally {
+			database.closeQuietly(insert);
+			database.closeQuietly(workStarted);
+			database.closeQuietly(workDone);
+			database.closeQuietly(workStartedAndDone);
+			if (connection != null) {
+				try {
+					connection.setAutoCommit(true);
+				}
+				catch (SQLException e) {
+					// ignore; pool will validate connection
+				}
+			}
+			database.closeQuietly(connection);
+		}
+	}
+
+	private void setTimestamp(PreparedStatement stmt, int index, Timestamp timestamp) throws SQLException {
+		if (timestamp == null) {
+			stmt.setNull(index, Types.TIMESTAMP);
+		}
+		else {
+			stmt.setTimestamp(index, timestamp, utcCalendar);
+		}
+	}
+
+	@Override
+	public void close() {
+		// connections are returned to the pool after each batch
+	}
+
+	private void checkTablesVersion() throws SQLException {
+		// check if there is a previous version; upgrade in this case
+		String sql = "SELECT major, minor FROM acm_version";
+		final int[] version = new int[2];
+		final boolean[] found = new boolean[1];
+		database.streamQuery(sql, null, 1, new LogDatabase.RowHandler() {
+			@Override
+			public void handleRow(ResultSet resultSet) throws SQLException {
+				version[0] = resultSet.getInt(1);
+				version[1] = resultSet.getInt(2);
+				found[0] = true;
+			}
+		});
+		if (!found[0]) {
+			throw new SQLException("acm_version is empty");
+		}
+
+		int major = version[0];
+		int minor = version[1];
+
+		if (major == 1 && minor == 0) {
+			LOG.info("Migrating request log database schema from 1.0 to 1.1");
+			migrateFrom10To11();
+			minor = 1;
+		}
+		if (major == 1 && minor == 1) {
+			LOG.info("Migrating request log database schema from 1.1 to 1.2");
+			migrateFrom11To12();
+			minor = 2;
+		}
+		if (major == 1 && minor == 2) {
+			LOG.info("Migrating request log database schema from 1.2 to 1.3");
+			migrateFrom12To13();
+			minor = 3;
+		}
+
+		if (major != DB_SCHEMA_VERSION[0] || minor != DB_SCHEMA_VERSION[1]) {
+			throw new SQLException("Unsupported version of database schema: " + major + "." + minor);
+		}
+	}
+
+	private void migrateFrom10To11() throws SQLException {
+		// @formatter:off
+		executeInTransaction(
+				getCreateRequestTableSql("acm_request_11"),
+				"INSERT INTO acm_request_11 (request_id, start_wait_time_utc, start_work_time_utc, end_work_time_utc, "
+					+ "user_name, user_source, job_name, received_resource, resource_type, end_work_status, "
+					+ "cnt_active_res_after_work) "
+					+ "SELECT 'legacy-' || TRIM(CHAR(request_id)), start_wait_time_utc, start_work_time_utc, end_work_time_utc, "
+					+ "user_name, user_source, job_name, received_resource, resource_type, end_work_status, "
+					+ "cnt_active_res_after_work FROM acm_request",
+				"DROP TABLE acm_request",
+				"RENAME TABLE acm_request_11 TO acm_request",
+				"UPDATE acm_version SET major = 1, minor = 1");
+		// @formatter:on
+	}
+
+	private void migrateFrom11To12() throws SQLException {
+		List<String> statements = new ArrayList<String>(getCreateRequestIndexesSql());
+		statements.add("UPDATE acm_version SET major = 1, minor = 2");
+		executeInTransaction(statements.toArray(new String[statements.size()]));
+	}
+
+	private void migrateFrom12To13() throws SQLException {
+		List<String> statements = new ArrayList<String>(getCreateHourlyTableSql());
+		statements.add("UPDATE acm_version SET major = 1, minor = 3");
+		executeInTransaction(statements.toArray(new String[statements.size()]));
+	}
+
+	private void executeInTransaction(String... statements) throws SQLException {
+		Connection connection = database.getConnection();
+		Statement stmt = null;
+		try {
+			connection.setAutoCommit(false);
+			stmt = connection.createStatement();
+			for (String sql : statements) {
+				stmt.executeUpdate(sql);
+			}
+			connection.commit();
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			database.closeQuietly(stmt);
+			connection.setAutoCommit(true);
+			database.closeQuietly(connection);
+		}
+	}
+
+	private void createBasicTables() throws SQLException {
+		String sql = "CREATE TABLE acm_version (major INTEGER NOT NULL, minor INTEGER NOT NULL)";
+		database.executeStatement(sql);
+
+		database.executeStatement(getCreateRequestTableSql("acm_request"));
+		for (String indexSql : getCreateRequestIndexesSql()) {
+			database.executeStatement(indexSql);
+		}
+		for (String hourlySql : getCreateHourlyTableSql()) {
+			database.executeStatement(hourlySql);
+		}
+
+		writeAcmVersion();
+	}
+
+	private static String getCreateRequestTableSql(String tableName) {
+		// @formatter:off
+		return "CREATE TABLE " + tableName + " (request_id VARCHAR(40) NOT NULL PRIMARY KEY, "
+			+ "start_wait_time_utc TIMESTAMP, "
+			+ "start_work_time_utc TIMESTAMP, "
+			+ "end_work_time_utc TIMESTAMP, "
+			+ "user_name VARCHAR(50), "
+			+ "user_source VARCHAR(100), "
+			+ "job_name VARCHAR(400), "
+			+ "received_resource VARCHAR(400), "
+			+ "resource_type VARCHAR(40), "
+			+ "end_work_status VARCHAR(20), "
+			+ "cnt_active_res_after_work INTEGER)";
+		// @formatter:on
+	}
+
+	private static List<String> getCreateRequestIndexesSql() {
+		// @formatter:off
+		return Arrays.asList(
+				"CREATE INDEX acm_request_wait_idx ON acm_request (start_wait_time_utc)",
+				"CREATE INDEX acm_request_user_idx ON acm_request (user_name)",
+				"CREATE INDEX acm_request_type_idx ON acm_request (resource_type)");
+		// @formatter:on
+	}
+
+	private static List<String> getCreateHourlyTableSql() {
+		// @formatter:off
+		return Arrays.asList(
+				"CREATE TABLE acm_request_hourly (hour_utc TIMESTAMP NOT NULL, "
+					+ "resource_type VARCHAR(40), "
+					+ "user_name VARCHAR(50), "
+					+ "request_count INTEGER NOT NULL, "
+					+ "assigned_count INTEGER NOT NULL, "
+					+ "avg_wait_seconds DOUBLE, "
+					+ "p95_wait_seconds DOUBLE, "
+					+ "busy_seconds BIGINT NOT NULL)",
+				"CREATE INDEX acm_request_hourly_idx ON acm_request_hourly (hour_utc)");
+		// @formatter:on
+	}
+
+	private void writeAcmVersion() throws SQLException {
+		String sql = "DELETE FROM acm_version";
+		database.executeStatement(sql);
+
+		sql = "INSERT INTO acm_version VALUES (" + DB_SCHEMA_VERSION[0] + ", " + DB_SCHEMA_VERSION[1] + ")";
+		database.executeStatement(sql);
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.aludratest.cloud.impl.app.RequestLogCommand.CommandType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request log sink appending rows to a binary journal in a local directory, as an alternative to the internal Derby database.
+ * <br>
+ * The journal consists of segment files of a fixed number of fixed-size records, which are memory-mapped while being written.
+ * When a segment is full, it is flushed to disk and the next segment is created. All segments needed for a batch of rows are
+ * created before the first row is written, so a batch is either written completely or not at all. Each batch is forced to
+ * disk before it is reported as written, so a crash of the application or the operating system loses only batches which have
+ * not been reported as written yet. Appending a row does not allocate any objects; String values are truncated to the column
+ * lengths of the <code>acm_request</code> table. <br>
+ * Use {@link RequestLogJournalExport} to export the journal to the Derby database or to a CSV file while the application is
+ * stopped. The number of records per segment can be configured using the system property
+ * <code>acm.requestlog.journal.segmentRecords</code> (default 16384).
+ */
+class JournalRequestLogSink implements RequestLogSink {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JournalRequestLogSink.class);
+
+	static final int SEGMENT_RECORDS = Math.max(1, Integer.getInteger("acm.requestlog.journal.segmentRecords", 16384)
+			.intValue());
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	// record flags; a record with flags 0 has not been written yet
+	static final int FLAG_CREATE = 1;
+
+	static final int FLAG_WORK_STARTED = 2;
+
+	static final int FLAG_WORK_DONE = 4;
+
+	// maximum lengths of String fields, as in acm_request table
+	static final int LEN_REQUEST_ID = 40;
+
+	static final int LEN_USER_NAME = 50;
+
+	static final int LEN_USER_SOURCE = 100;
+
+	static final int LEN_JOB_NAME = 400;
+
+	static final int LEN_RESOURCE = 400;
+
+	static final int LEN_RESOURCE_TYPE = 40;
+
+	static final int LEN_STATUS = 20;
+
+	// record layout
+	static final int OFS_FLAGS = 0;
+
+	static final int OFS_CREATE_TIME = 1;
+
+	static final int OFS_WORK_STARTED_TIME = OFS_CREATE_TIME + 8;
+
+	static final int OFS_WORK_DONE_TIME = OFS_WORK_STARTED_TIME + 8;
+
+	static final int OFS_CNT_ACTIVE_RESOURCES = OFS_WORK_DONE_TIME + 8;
+
+	static final int OFS_REQUEST_ID = OFS_CNT_ACTIVE_RESOURCES + 4;
+
+	static final int OFS_USER_NAME = OFS_REQUEST_ID + stringSize(LEN_REQUEST_ID);
+
+	static final int OFS_USER_SOURCE = OFS_USER_NAME + stringSize(LEN_USER_NAME);
+
+	static final int OFS_JOB_NAME = OFS_USER_SOURCE + stringSize(LEN_USER_SOURCE);
+
+	static final int OFS_RESOURCE = OFS_JOB_NAME + stringSize(LEN_JOB_NAME);
+
+	static final int OFS_RESOURCE_TYPE = OFS_RESOURCE + stringSize(LEN_RESOURCE);
+
+	static final int OFS_STATUS = OFS_RESOURCE_TYPE + stringSize(LEN_RESOURCE_TYPE);
+
+	static final int RECORD_SIZE = OFS_STATUS + stringSize(LEN_STATUS);
+
+	private final File directory;
+
+	// number of the last segment which has been opened
+	private int segmentNumber;
+
+	// null if rolling to the next segment failed
+	private Segment segment;
+
+	// index of next free record in current segment
+	private int recordIndex;
+
+	/**
+	 * Creates a new journal sink, continuing the last segment found in the given directory, if any.
+	 * 
+	 * @param directory
+	 *            Directory to store the journal segments in. Is created if it does not exist.
+	 * 
+	 * @throws IOException
+	 *             If the directory could not be created, or the last segment could not be opened.
+	 */
+	JournalRequestLogSink(File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create request log journal directory " + directory.getAbsolutePath());
+		}
+
+		File[] segments = listSegments(directory);
+		if (segments.length == 0) {
+			segmentNumber = 1;
+			segment = openSegment(segmentNumber);
+		}
+		else {
+			File last = segments[segments.length - 1];
+			segmentNumber = getSegmentNumber(last);
+			segment = openSegment(segmentNumber);
+			while (recordIndex < SEGMENT_RECORDS && segment.buffer.get(recordIndex * RECORD_SIZE + OFS_FLAGS) != 0) {
+				recordIndex++;
+			}
+			LOG.info("Continuing request log journal segment " + last.getName() + " at record " + recordIndex);
+		}
+	}
+
+	private static int stringSize(int maxLength) {
+		return 2 + 2 * maxLength;
+	}
+
+	static File[] listSegments(File directory) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		// segment numbers are zero-padded, so name order is segment order
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static int getSegmentNumber(File segmentFile) throws IOException {
+		String name = segmentFile.getName();
+		try {
+			return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Invalid request log journal segment name: " + name);
+		}
+	}
+
+	private Segment openSegment(int number) throws IOException {
+		File file = new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, Integer.valueOf(number), SEGMENT_SUFFIX));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long size = (long) SEGMENT_RECORDS * RECORD_SIZE;
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			return new Segment(raf, raf.getChannel().map(MapMode.READ_WRITE, 0, size));
+		}
+		catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private void closeSegment() {
+		if (segment != null) {
+			segment.close();
+			segment = null;
+		}
+	}
+
+	@Override
+	public boolean writeRows(Collection<RequestLogRow> rows) {
+		List<Segment> nextSegments;
+		try {
+			nextSegments = openNextSegments(rows.size());
+		}
+		catch (IOException e) {
+			LOG.error("Could not roll request log journal segment", e);
+			return false;
+		}
+
+		int nextSegment = 0;
+		for (RequestLogRow row : rows) {
+			if (segment == null || recordIndex == SEGMENT_RECORDS) {
+				closeSegment();
+				segment = nextSegments.get(nextSegment++);
+				segmentNumber++;
+				recordIndex = 0;
+			}
+			writeRecord(segment.buffer, recordIndex * RECORD_SIZE, row);
+			recordIndex++;
+		}
+
+		// the batch counts as written only once it has reached the disk, as with a committed database transaction
+		if (segment != null) {
+			segment.buffer.force();
+		}
+		return true;
+	}
+
+	/**
+	 * Opens all segments which are needed in addition to the current one to write the given number of records. If one of the
+	 * segments cannot be opened, the segments opened before are closed again, so nothing of the batch is written.
+	 */
+	private List<Segment> openNextSegments(int recordCount) throws IOException {
+		int missing = recordCount - (segment == null ? 0 : SEGMENT_RECORDS - recordIndex);
+		List<Segment> result = new ArrayList<Segment>();
+		try {
+			for (int number = segmentNumber + 1; missing > 0; number++) {
+				result.add(openSegment(number));
+				missing -= SEGMENT_RECORDS;
+			}
+		}
+		catch (IOException e) {
+			for (Segment s : result) {
+				s.close();
+			}
+			throw e;
+		}
+		return result;
+	}
+
+	private static void writeRecord(ByteBuffer buffer, int offset, RequestLogRow row) {
+		int flags = 0;
+		putString(buffer, offset + OFS_REQUEST_ID, row.requestId, LEN_REQUEST_ID);
+		if (row.create != null) {
+			flags |= FLAG_CREATE;
+			buffer.putLong(offset + OFS_CREATE_TIME, row.create.timestamp.getTime());
+			putString(buffer, offset + OFS_USER_NAME, row.create.userName, LEN_USER_NAME);
+			putString(buffer, offset + OFS_USER_SOURCE, row.create.userSource, LEN_USER_SOURCE);
+			putString(buffer, offset + OFS_JOB_NAME, row.create.jobName, LEN_JOB_NAME);
+		}
+		if (row.workStarted != null) {
+			flags |= FLAG_WORK_STARTED;
+			buffer.putLong(offset + OFS_WORK_STARTED_TIME, row.workStarted.timestamp.getTime());
+			putString(buffer, offset + OFS_RESOURCE, row.workStarted.resource, LEN_RESOURCE);
+			putString(buffer, offset + OFS_RESOURCE_TYPE, row.workStarted.resourceType, LEN_RESOURCE_TYPE);
+		}
+		if (row.workDone != null) {
+			flags |= FLAG_WORK_DONE;
+			buffer.putLong(offset + OFS_WORK_DONE_TIME, row.workDone.timestamp.getTime());
+			buffer.putInt(offset + OFS_CNT_ACTIVE_RESOURCES, row.workDone.cntActiveResources);
+			putString(buffer, offset + OFS_STATUS, row.workDone.status, LEN_STATUS);
+		}
+		// flags are written last, so a partially written record is never read
+		buffer.put(offset + OFS_FLAGS, (byte) flags);
+	}
+
+	private static void putString(ByteBuffer buffer, int offset, String value, int maxLength) {
+		if (value == null) {
+			buffer.putShort(offset, (short) -1);
+			return;
+		}
+		int length = Math.min(value.length(), maxLength);
+		buffer.putShort(offset, (short) length);
+		for (int i = 0; i < length; i++) {
+			buffer.putChar(offset + 2 + 2 * i, value.charAt(i));
+		}
+	}
+
+	/**
+	 * Reads the record at the given offset of the given segment buffer.
+	 * 
+	 * @param buffer
+	 *            Buffer containing a journal segment.
+	 * @param offset
+	 *            Offset of the record within the buffer.
+	 * 
+	 * @return The row stored in the record, or <code>null</code> if the record has not been written.
+	 */
+	static RequestLogRow readRecord(ByteBuffer buffer, int offset) {
+		int flags = buffer.get(offset + OFS_FLAGS);
+		if (flags == 0) {
+			return null;
+		}
+
+		RequestLogRow row = new RequestLogRow(getString(buffer, offset + OFS_REQUEST_ID));
+		if ((flags & FLAG_CREATE) != 0) {
+			row.create = new RequestLogCommand(CommandType.CREATE, row.requestId, buffer.getLong(offset + OFS_CREATE_TIME));
+			row.create.userName = getString(buffer, offset + OFS_USER_NAME);
+			row.create.userSource = getString(buffer, offset + OFS_USER_SOURCE);
+			row.create.jobName = getString(buffer, offset + OFS_JOB_NAME);
+			row.commandCount++;
+		}
+		if ((flags & FLAG_WORK_STARTED) != 0) {
+			row.workStarted = new RequestLogCommand(CommandType.WORK_STARTED, row.requestId, buffer.getLong(offset
+					+ OFS_WORK_STARTED_TIME));
+			row.workStarted.resource = getString(buffer, offset + OFS_RESOURCE);
+			row.workStarted.resourceType = getString(buffer, offset + OFS_RESOURCE_TYPE);
+			row.commandCount++;
+		}
+		if ((flags & FLAG_WORK_DONE) != 0) {
+			row.workDone = new RequestLogCommand(CommandType.WORK_DONE, row.requestId, buffer.getLong(offset + OFS_WORK_DONE_TIME));
+			row.workDone.cntActiveResources = buffer.getInt(offset + OFS_CNT_ACTIVE_RESOURCES);
+			row.workDone.status = getString(buffer, offset + OFS_STATUS);
+			row.commandCount++;
+		}
+		return row;
+	}
+
+	private static String getString(ByteBuffer buffer, int offset) {
+		int length = buffer.getShort(offset);
+		if (length < 0) {
+			return null;
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = buffer.getChar(offset + 2 + 2 * i);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Maps the given segment file read-only.
+	 * 
+	 * @param file
+	 *            Segment file to map.
+	 * 
+	 * @return A buffer containing the segment.
+	 * 
+	 * @throws IOException
+	 *             If the file could not be mapped.
+	 */
+	static ByteBuffer mapSegmentReadOnly(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		closeSegment();
+	}
+
+	private static class Segment {
+
+		private final RandomAccessFile file;
+
+		private final MappedByteBuffer buffer;
+
+		private Segment(RandomAccessFile file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		private void close() {
+			buffer.force();
+			try {
+				file.close();
+			}
+			catch (IOException e) {
+				LOG.warn("Could not close request log journal segment", e);
+			}
+		}
+
+	}
+
+}
@@ -19,9 +19,14 @@ import java.io.File;
 import java.net.InetAddress;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
 
 import javax.sql.DataSource;
 import javax.sql.rowset.CachedRowSet;
@@ -99,7 +104,16 @@ public class LogDatabase {
 		}
 	}
 
-	private Connection getConnection() throws SQLException {
+	/**
+	 * Borrows a connection from the internal connection pool. Connections are in auto-commit mode by default. Callers must
+	 * restore the auto-commit mode if they change it, and must close the connection to return it to the pool.
+	 * 
+	 * @return A pooled connection to the internal Derby database.
+	 * 
+	 * @throws SQLException
+	 *             If no connection could be obtained.
+	 */
+	Connection getConnection() throws SQLException {
 		if (dataSource == null) {
 			EmbeddedDataSource ds = new EmbeddedDataSource();
 			ds.setDatabaseName("acm");
@@ -130,7 +144,11 @@ public class LogDatabase {
 	 * 
 	 * @throws SQLException
 	 *             If a database exception occurs, e.g. invalid query.
+	 * 
+	 * @deprecated Keeps the full result in memory and relies on a JDK internal class. Use
+	 *             {@link #streamQuery(String, Object[], int, RowHandler)} instead.
 	 */
+	@Deprecated
 	public CachedRowSet populateQuery(String query) throws SQLException {
 		Connection connection = getConnection();
 		Statement stmt = null;
@@ -159,6 +177,60 @@ public class LogDatabase {
 		}
 	}
 
+	/**
+	 * Runs the given query against the internal Derby database and passes each result row to the given handler. Rows are fetched
+	 * from the database in chunks of the given fetch size, so the result is never held in memory completely. <br>
+	 * Parameters are bound in the given order. <code>java.util.Date</code> parameters are bound as UTC timestamps, matching the
+	 * <code>*_utc</code> columns of the request log.
+	 * 
+	 * @param query
+	 *            SQL query to execute, usually starts with <code>SELECT</code>. May contain <code>?</code> placeholders.
+	 * @param parameters
+	 *            Values for the placeholders of the query, or <code>null</code> if the query has no placeholders.
+	 * @param fetchSize
+	 *            Number of rows to fetch from the database at once.
+	 * @param handler
+	 *            Handler to receive the rows.
+	 * 
+	 * @throws SQLException
+	 *             If a database exception occurs, e.g. invalid query, or if the handler throws an exception.
+	 */
+	public void streamQuery(String query, Object[] parameters, int fetchSize, RowHandler handler) throws SQLException {
+		Connection connection = getConnection();
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(fetchSize);
+			if (parameters != null) {
+				Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+				for (int i = 0; i < parameters.length; i++) {
+					if (parameters[i] instanceof Date) {
+						stmt.setTimestamp(i + 1, new Timestamp(((Date) parameters[i]).getTime()), utcCalendar);
+					}
+					else {
+						stmt.setObject(i + 1, parameters[i]);
+					}
+				}
+			}
+
+			LOG.debug("Executing QUERY: " + query);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				while (rs.next()) {
+					handler.handleRow(rs);
+				}
+			}
+			finally {
+				rs.close();
+			}
+			LOG.debug("Query execution complete.");
+		}
+		finally {
+			closeQuietly(stmt);
+			closeQuietly(connection);
+		}
+	}
+
 	public void executeStatement(String sql) throws SQLException {
 		executeStatement(sql, null);
 	}
@@ -193,7 +265,7 @@ public class LogDatabase {
 		}
 	}
 
-	private void closeQuietly(Statement stmt) {
+	void closeQuietly(Statement stmt) {
 		if (stmt != null) {
 			try {
 				stmt.close();
@@ -204,7 +276,7 @@ public class LogDatabase {
 		}
 	}
 
-	private void closeQuietly(Connection conn) {
+	void closeQuietly(Connection conn) {
 		if (conn != null) {
 			try {
 				conn.close();
@@ -215,6 +287,22 @@ public class LogDatabase {
 		}
 	}
 
+	/**
+	 * Callback interface for {@link LogDatabase#streamQuery(String, Object[], int, RowHandler)}.
+	 */
+	public static interface RowHandler {
 
+		/**
+		 * Called for each row of a query result. Implementations must only read the current row and must not move the cursor.
+		 * 
+		 * @param resultSet
+		 *            Result set, positioned on the current row.
+		 * 
+		 * @throws SQLException
+		 *             If a column could not be read. Aborts the query.
+		 */
+		public void handleRow(ResultSet resultSet) throws SQLException;
+
+	}
 
 }
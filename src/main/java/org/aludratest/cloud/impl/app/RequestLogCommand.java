@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.sql.Timestamp;
+
+/**
+ * One lifecycle event of a resource request, as queued by the {@link DatabaseRequestLogger}.
+ */
+final class RequestLogCommand {
+
+	static enum CommandType {
+		CREATE, WORK_STARTED, WORK_DONE
+	}
+
+	CommandType type;
+
+	String requestId;
+
+	Timestamp timestamp;
+
+	String userName;
+
+	String userSource;
+
+	String jobName;
+
+	String resourceType;
+
+	String resource;
+
+	String status;
+
+	int cntActiveResources;
+
+	RequestLogCommand(CommandType type, String requestId) {
+		this(type, requestId, System.currentTimeMillis());
+	}
+
+	RequestLogCommand(CommandType type, String requestId, long timestamp) {
+		this.type = type;
+		this.requestId = requestId;
+		this.timestamp = new Timestamp(timestamp);
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeByte(type.ordinal());
+		out.writeUTF(requestId);
+		out.writeLong(timestamp.getTime());
+		switch (type) {
+			case CREATE:
+				writeString(out, userName);
+				writeString(out, userSource);
+				writeString(out, jobName);
+				break;
+			case WORK_STARTED:
+				writeString(out, resourceType);
+				writeString(out, resource);
+				break;
+			case WORK_DONE:
+				writeString(out, status);
+				out.writeInt(cntActiveResources);
+				break;
+		}
+	}
+
+	static RequestLogCommand readFrom(DataInputStream in) throws IOException {
+		int typeIndex = in.read();
+		if (typeIndex < 0) {
+			throw new EOFException();
+		}
+		if (typeIndex >= CommandType.values().length) {
+			throw new IOException("Invalid command type in spill file: " + typeIndex);
+		}
+
+		RequestLogCommand command = new RequestLogCommand(CommandType.values()[typeIndex], in.readUTF(), in.readLong());
+		switch (command.type) {
+			case CREATE:
+				command.userName = readString(in);
+				command.userSource = readString(in);
+				command.jobName = readString(in);
+				break;
+			case WORK_STARTED:
+				command.resourceType = readString(in);
+				command.resource = readString(in);
+				break;
+			case WORK_DONE:
+				command.status = readString(in);
+				command.cntActiveResources = in.readInt();
+				break;
+		}
+		return command;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + requestId;
+	}
+
+}
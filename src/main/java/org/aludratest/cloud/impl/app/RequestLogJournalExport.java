@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Offline tool to export a request log journal, as written by {@link JournalRequestLogSink}, to the internal Derby database or to
+ * a CSV file. Must not be run while the application is writing to the journal or using the Derby database. The journal itself is
+ * not modified; delete its segments after a successful export. <br>
+ * Usage:
+ * 
+ * <pre>
+ * RequestLogJournalExport derby &lt;journalDir&gt; &lt;configDir&gt;
+ * RequestLogJournalExport csv &lt;journalDir&gt; &lt;csvFile&gt;
+ * </pre>
+ * 
+ * For CSV export, all rows of a request are combined into one line, like in the <code>acm_request</code> table.
+ */
+public final class RequestLogJournalExport {
+
+	private static final int BATCH_SIZE = 100;
+
+	private RequestLogJournalExport() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3 || !("derby".equals(args[0]) || "csv".equals(args[0]))) {
+			System.err.println("Usage: RequestLogJournalExport derby <journalDir> <configDir>");
+			System.err.println("       RequestLogJournalExport csv <journalDir> <csvFile>");
+			System.exit(1);
+			return;
+		}
+
+		File journalDir = new File(args[1]);
+		if (!journalDir.isDirectory()) {
+			System.err.println("Not a directory: " + journalDir.getAbsolutePath());
+			System.exit(1);
+			return;
+		}
+
+		int count;
+		if ("derby".equals(args[0])) {
+			count = exportToDerby(journalDir, new File(args[2]));
+		}
+		else {
+			count = exportToCsv(journalDir, new File(args[2]));
+		}
+		System.out.println("Exported " + count + " journal records.");
+	}
+
+	/**
+	 * Handler for journal records.
+	 */
+	private static interface RecordHandler {
+
+		public void handleRecord(RequestLogRow row) throws Exception;
+
+	}
+
+	private static void readJournal(File journalDir, RecordHandler handler) throws Exception {
+		for (File file : JournalRequestLogSink.listSegments(journalDir)) {
+			ByteBuffer buffer = JournalRequestLogSink.mapSegmentReadOnly(file);
+			int records = buffer.capacity() / JournalRequestLogSink.RECORD_SIZE;
+			for (int i = 0; i < records; i++) {
+				RequestLogRow row = JournalRequestLogSink.readRecord(buffer, i * JournalRequestLogSink.RECORD_SIZE);
+				if (row == null) {
+					// remainder of segment has not been written
+					break;
+				}
+				handler.handleRecord(row);
+			}
+		}
+	}
+
+	/**
+	 * Writes all journal records to the request log of the Derby database in the given configuration directory, creating the
+	 * database if required.
+	 * 
+	 * @param journalDir
+	 *            Directory containing the journal segments.
+	 * @param configDir
+	 *            Configuration directory of the application, containing the <code>derby</code> directory.
+	 * 
+	 * @return The number of exported records.
+	 * 
+	 * @throws Exception
+	 *             If the journal could not be read, or the database could not be opened.
+	 */
+	public static int exportToDerby(File journalDir, File configDir) throws Exception {
+		LogDatabase database = new LogDatabase(configDir, null);
+		try {
+			final DerbyRequestLogSink sink = new DerbyRequestLogSink(database);
+			final List<RequestLogRow> batch = new ArrayList<RequestLogRow>(BATCH_SIZE);
+			final int[] count = new int[1];
+			readJournal(journalDir, new RecordHandler() {
+				@Override
+				public void handleRecord(RequestLogRow row) {
+					batch.add(row);
+					count[0]++;
+					if (batch.size() == BATCH_SIZE) {
+						writeToDerby(sink, batch);
+						batch.clear();
+					}
+				}
+			});
+			writeToDerby(sink, batch);
+			sink.close();
+			return count[0];
+		}
+		finally {
+			database.shutdown();
+		}
+	}
+
+	private static void writeToDerby(DerbyRequestLogSink sink, List<RequestLogRow> batch) {
+		if (batch.isEmpty() || sink.writeRows(batch)) {
+			return;
+		}
+		// write rows one by one, so one bad row does not discard the whole batch
+		for (RequestLogRow row : batch) {
+			if (!sink.writeRows(Collections.singletonList(row))) {
+				System.err.println("Could not export journal record for request " + row.requestId);
+			}
+		}
+	}
+
+	/**
+	 * Writes all requests contained in the journal to the given CSV file. The columns are the same as in the
+	 * <code>acm_request</code> table. Timestamps are written in UTC.
+	 * 
+	 * @param journalDir
+	 *            Directory containing the journal segments.
+	 * @param csvFile
+	 *            CSV file to write. An existing file is overwritten.
+	 * 
+	 * @return The number of exported records.
+	 * 
+	 * @throws Exception
+	 *             If the journal could not be read, or the CSV file could not be written.
+	 */
+	public static int exportToCsv(File journalDir, File csvFile) throws Exception {
+		// combine all records of a request
+		final Map<String, RequestLogRow> requests = new LinkedHashMap<String, RequestLogRow>();
+		final int[] count = new int[1];
+		readJournal(journalDir, new RecordHandler() {
+			@Override
+			public void handleRecord(RequestLogRow row) {
+				count[0]++;
+				RequestLogRow existing = requests.get(row.requestId);
+				if (existing == null) {
+					requests.put(row.requestId, row);
+					return;
+				}
+				if (row.create != null) {
+					existing.create = row.create;
+				}
+				if (row.workStarted != null) {
+					existing.workStarted = row.workStarted;
+				}
+				if (row.workDone != null) {
+					existing.workDone = row.workDone;
+				}
+			}
+		});
+
+		DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8"));
+		try {
+			out.println("request_id,start_wait_time_utc,start_work_time_utc,end_work_time_utc,user_name,user_source,job_name,"
+					+ "received_resource,resource_type,end_work_status,cnt_active_res_after_work");
+			for (RequestLogRow row : requests.values()) {
+				StringBuilder sb = new StringBuilder();
+				appendCsv(sb, row.requestId);
+				appendCsv(sb, row.create == null ? null : dateFormat.format(row.create.timestamp));
+				appendCsv(sb, row.workStarted == null ? null : dateFormat.format(row.workStarted.timestamp));
+				appendCsv(sb, row.workDone == null ? null : dateFormat.format(row.workDone.timestamp));
+				appendCsv(sb, row.create == null ? null : row.create.userName);
+				appendCsv(sb, row.create == null ? null : row.create.userSource);
+				appendCsv(sb, row.create == null ? null : row.create.jobName);
+				appendCsv(sb, row.workStarted == null ? null : row.workStarted.resource);
+				appendCsv(sb, row.workStarted == null ? null : row.workStarted.resourceType);
+				appendCsv(sb, row.workDone == null ? null : row.workDone.status);
+				appendCsv(sb, row.workDone == null ? null : String.valueOf(row.workDone.cntActiveResources));
+				out.println(sb.substring(1));
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Could not write CSV file " + csvFile.getAbsolutePath());
+		}
+		return count[0];
+	}
+
+	private static void appendCsv(StringBuilder sb, String value) {
+		sb.append(',');
+		if (value == null) {
+			return;
+		}
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+			sb.append(value);
+		}
+		else {
+			sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+		}
+	}
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregate reports over the request log. All aggregation is performed by the database, so only one row per group is
+ * transferred, regardless of the number of requests in the reported time range. Time ranges are matched against the
+ * <code>start_wait_time_utc</code> column, which is indexed. <br>
+ * Requests which are older than the retention age have been rolled up into <code>acm_request_hourly</code> by the
+ * {@link RequestLogRetentionJob}. The reports combine both tables, with these limitations for rolled-up requests:
+ * <ul>
+ * <li>They are matched against the time range by the start of their hour, so the range is effectively extended to whole
+ * hours.</li>
+ * <li>The maximum wait time of an hour is not known; the 95th percentile of the hour is used instead.</li>
+ * <li>The number of resources still in use when a request finished is not known, so they do not contribute to
+ * {@link UtilizationStatistics#getMaxActiveResources()}.</li>
+ * <li>Requests which received a resource are counted as completed.</li>
+ * </ul>
+ */
+public class RequestLogReports {
+
+	private static final int FETCH_SIZE = 500;
+
+	private static final String WAIT_SECONDS = "{fn TIMESTAMPDIFF(SQL_TSI_SECOND, start_wait_time_utc, start_work_time_utc)}";
+
+	private static final String WORK_SECONDS = "{fn TIMESTAMPDIFF(SQL_TSI_SECOND, start_work_time_utc, end_work_time_utc)}";
+
+	// @formatter:off
+	private static final String SQL_WAIT_TIMES = "SELECT resource_type, user_name, COUNT(*), "
+			+ "AVG(CAST(" + WAIT_SECONDS + " AS DOUBLE)), MAX(" + WAIT_SECONDS + ") "
+			+ "FROM acm_request WHERE start_wait_time_utc >= ? AND start_wait_time_utc < ? "
+			+ "AND start_work_time_utc IS NOT NULL "
+			+ "GROUP BY resource_type, user_name";
+
+	private static final String SQL_HOURLY_WAIT_TIMES = "SELECT resource_type, user_name, "
+			+ "SUM(CAST(assigned_count AS BIGINT)), SUM(avg_wait_seconds * assigned_count), MAX(p95_wait_seconds) "
+			+ "FROM acm_request_hourly WHERE hour_utc >= ? AND hour_utc < ? AND assigned_count > 0 "
+			+ "GROUP BY resource_type, user_name";
+
+	private static final String SQL_UTILIZATION = "SELECT resource_type, COUNT(*), "
+			+ "SUM(CAST(" + WORK_SECONDS + " AS BIGINT)), MAX(cnt_active_res_after_work) "
+			+ "FROM acm_request WHERE start_wait_time_utc >= ? AND start_wait_time_utc < ? "
+			+ "AND end_work_time_utc IS NOT NULL AND start_work_time_utc IS NOT NULL "
+			+ "GROUP BY resource_type";
+
+	private static final String SQL_HOURLY_UTILIZATION = "SELECT resource_type, SUM(CAST(assigned_count AS BIGINT)), "
+			+ "SUM(busy_seconds) FROM acm_request_hourly WHERE hour_utc >= ? AND hour_utc < ? AND assigned_count > 0 "
+			+ "GROUP BY resource_type";
+	// @formatter:on
+
+	private LogDatabase database;
+
+	/**
+	 * Creates a new reports object operating on the given database.
+	 * 
+	 * @param database
+	 *            Database containing the request log.
+	 */
+	public RequestLogReports(LogDatabase database) {
+		this.database = database;
+	}
+
+	/**
+	 * Returns wait time statistics, i.e. the time between a request being received and a resource being assigned to it, grouped
+	 * by resource type and user. Requests which never received a resource are not included.
+	 * 
+	 * @param from
+	 *            Start of the time range (inclusive), in UTC.
+	 * @param to
+	 *            End of the time range (exclusive), in UTC.
+	 * 
+	 * @return Wait time statistics, one entry per resource type and user, ordered by resource type and user name.
+	 * 
+	 * @throws SQLException
+	 *             If the database could not be queried.
+	 */
+	public List<WaitTimeStatistics> getWaitTimeStatistics(Date from, Date to) throws SQLException {
+		final Map<List<String>, WaitTimeStatistics> result = new HashMap<List<String>, WaitTimeStatistics>();
+		database.streamQuery(SQL_WAIT_TIMES, new Object[] { from, to }, FETCH_SIZE, new LogDatabase.RowHandler() {
+			@Override
+			public void handleRow(ResultSet resultSet) throws SQLException {
+				long count = resultSet.getLong(3);
+				getWaitTimeStatistics(result, resultSet.getString(1), resultSet.getString(2)).add(count,
+						resultSet.getDouble(4) * count, resultSet.getLong(5));
+			}
+		});
+		database.streamQuery(SQL_HOURLY_WAIT_TIMES, new Object[] { from, to }, FETCH_SIZE, new LogDatabase.RowHandler() {
+			@Override
+			public void handleRow(ResultSet resultSet) throws SQLException {
+				getWaitTimeStatistics(result, resultSet.getString(1), resultSet.getString(2)).add(resultSet.getLong(3),
+						resultSet.getDouble(4), (long) Math.ceil(resultSet.getDouble(5)));
+			}
+		});
+
+		List<WaitTimeStatistics> list = new ArrayList<WaitTimeStatistics>(result.values());
+		Collections.sort(list, new Comparator<WaitTimeStatistics>() {
+			@Override
+			public int compare(WaitTimeStatistics s1, WaitTimeStatistics s2) {
+				int cmp = compareNullsFirst(s1.resourceType, s2.resourceType);
+				return cmp != 0 ? cmp : compareNullsFirst(s1.userName, s2.userName);
+			}
+		});
+		return list;
+	}
+
+	private static WaitTimeStatistics getWaitTimeStatistics(Map<List<String>, WaitTimeStatistics> statistics,
+			String resourceType, String userName) {
+		List<String> key = Arrays.asList(resourceType, userName);
+		WaitTimeStatistics result = statistics.get(key);
+		if (result == null) {
+			result = new WaitTimeStatistics(resourceType, userName);
+			statistics.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns utilization statistics, i.e. the number of completed requests and the total time resources were in use, grouped by
+	 * resource type. Only requests which have been completed are included.
+	 * 
+	 * @param from
+	 *            Start of the time range (inclusive), in UTC.
+	 * @param to
+	 *            End of the time range (exclusive), in UTC.
+	 * 
+	 * @return Utilization statistics, one entry per resource type, ordered by resource type.
+	 * 
+	 * @throws SQLException
+	 *             If the database could not be queried.
+	 */
+	public List<UtilizationStatistics> getUtilizationStatistics(Date from, Date to) throws SQLException {
+		final Map<String, UtilizationStatistics> result = new HashMap<String, UtilizationStatistics>();
+		database.streamQuery(SQL_UTILIZATION, new Object[] { from, to }, FETCH_SIZE, new LogDatabase.RowHandler() {
+			@Override
+			public void handleRow(ResultSet resultSet) throws SQLException {
+				getUtilizationStatistics(result, resultSet.getString(1)).add(resultSet.getLong(2), resultSet.getLong(3),
+						resultSet.getInt(4));
+			}
+		});
+		database.streamQuery(SQL_HOURLY_UTILIZATION, new Object[] { from, to }, FETCH_SIZE, new LogDatabase.RowHandler() {
+			@Override
+			public void handleRow(ResultSet resultSet) throws SQLException {
+				getUtilizationStatistics(result, resultSet.getString(1)).add(resultSet.getLong(2), resultSet.getLong(3), 0);
+			}
+		});
+
+		List<UtilizationStatistics> list = new ArrayList<UtilizationStatistics>(result.values());
+		Collections.sort(list, new Comparator<UtilizationStatistics>() {
+			@Override
+			public int compare(UtilizationStatistics s1, UtilizationStatistics s2) {
+				return compareNullsFirst(s1.resourceType, s2.resourceType);
+			}
+		});
+		return list;
+	}
+
+	private static UtilizationStatistics getUtilizationStatistics(Map<String, UtilizationStatistics> statistics,
+			String resourceType) {
+		UtilizationStatistics result = statistics.get(resourceType);
+		if (result == null) {
+			result = new UtilizationStatistics(resourceType);
+			statistics.put(resourceType, result);
+		}
+		return result;
+	}
+
+	private static int compareNullsFirst(String s1, String s2) {
+		if (s1 == null) {
+			return s2 == null ? 0 : -1;
+		}
+		return s2 == null ? 1 : s1.compareTo(s2);
+	}
+
+	/**
+	 * Wait time statistics of one user for one resource type.
+	 */
+	public static class WaitTimeStatistics {
+
+		private String resourceType;
+
+		private String userName;
+
+		private long requestCount;
+
+		private double totalWaitSeconds;
+
+		private long maxWaitSeconds;
+
+		private WaitTimeStatistics(String resourceType, String userName) {
+			this.resourceType = resourceType;
+			this.userName = userName;
+		}
+
+		private void add(long requestCount, double totalWaitSeconds, long maxWaitSeconds) {
+			this.requestCount += requestCount;
+			this.totalWaitSeconds += totalWaitSeconds;
+			this.maxWaitSeconds = Math.max(this.maxWaitSeconds, maxWaitSeconds);
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public String getUserName() {
+			return userName;
+		}
+
+		public long getRequestCount() {
+			return requestCount;
+		}
+
+		public double getAverageWaitSeconds() {
+			return requestCount == 0 ? 0 : totalWaitSeconds / requestCount;
+		}
+
+		public long getMaxWaitSeconds() {
+			return maxWaitSeconds;
+		}
+	}
+
+	/**
+	 * Utilization statistics of one resource type.
+	 */
+	public static class UtilizationStatistics {
+
+		private String resourceType;
+
+		private long requestCount;
+
+		private long busySeconds;
+
+		private int maxActiveResources;
+
+		private UtilizationStatistics(String resourceType) {
+			this.resourceType = resourceType;
+		}
+
+		private void add(long requestCount, long busySeconds, int maxActiveResources) {
+			this.requestCount += requestCount;
+			this.busySeconds += busySeconds;
+			this.maxActiveResources = Math.max(this.maxActiveResources, maxActiveResources);
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public long getRequestCount() {
+			return requestCount;
+		}
+
+		/**
+		 * Returns the total time resources of this type were in use by the requests, in seconds.
+		 * 
+		 * @return The total time resources of this type were in use by the requests, in seconds.
+		 */
+		public long getBusySeconds() {
+			return busySeconds;
+		}
+
+		/**
+		 * Returns the maximum number of resources of this type which were still in use when one of the requests finished.
+		 * 
+		 * @return The maximum number of resources of this type which were still in use when one of the requests finished.
+		 */
+		public int getMaxActiveResources() {
+			return maxActiveResources;
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background job which keeps the request log bounded. Raw rows of <code>acm_request</code> which are older than the retention
+ * age are rolled up into the hourly aggregate table <code>acm_request_hourly</code> (request count, average and 95th
+ * percentile wait time and busy time per hour, resource type and user), and are deleted afterwards. <br>
+ * Each hour is rolled up and deleted in its own transaction, and at most {@link #MAX_HOURS_PER_RUN} hours are processed per
+ * run, so the job never holds locks on the request log for long. Raw rows are deleted using batches of at most
+ * {@link #DELETE_BATCH_SIZE} statements. <br>
+ * The retention age can be configured using the system property <code>acm.requestlog.retentionDays</code> (default 180). A
+ * value of 0 or less disables the job.
+ */
+public class RequestLogRetentionJob implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestLogRetentionJob.class);
+
+	/**
+	 * Number of days to keep raw request log rows.
+	 */
+	static final int RETENTION_DAYS = Integer.getInteger("acm.requestlog.retentionDays", 180).intValue();
+
+	/**
+	 * Maximum number of hours rolled up per run of this job.
+	 */
+	static final int MAX_HOURS_PER_RUN = Math.max(1, Integer.getInteger("acm.requestlog.retentionHoursPerRun", 168).intValue());
+
+	/**
+	 * Maximum number of DELETE statements sent to the database in one JDBC batch.
+	 */
+	static final int DELETE_BATCH_SIZE = 500;
+
+	private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static final String SQL_OLDEST = "SELECT MIN(start_wait_time_utc) FROM acm_request";
+
+	private static final String SQL_SELECT_HOUR = "SELECT request_id, resource_type, user_name, start_wait_time_utc, "
+			+ "start_work_time_utc, end_work_time_utc FROM acm_request WHERE start_wait_time_utc >= ? "
+			+ "AND start_wait_time_utc < ? ORDER BY resource_type, user_name";
+
+	private static final String SQL_INSERT_HOURLY = "INSERT INTO acm_request_hourly (hour_utc, resource_type, user_name, "
+			+ "request_count, assigned_count, avg_wait_seconds, p95_wait_seconds, busy_seconds) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SQL_DELETE = "DELETE FROM acm_request WHERE request_id = ?";
+
+	private LogDatabase database;
+
+	private final Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+	/**
+	 * Creates a new retention job operating on the given database. The database must already contain the request log tables.
+	 * 
+	 * @param database
+	 *            Database containing the request log.
+	 */
+	public RequestLogRetentionJob(LogDatabase database) {
+		this.database = database;
+	}
+
+	/**
+	 * Returns <code>true</code> if a retention age is configured, i.e. this job should be scheduled.
+	 * 
+	 * @return <code>true</code> if a retention age is configured, <code>false</code> otherwise.
+	 */
+	public static boolean isEnabled() {
+		return RETENTION_DAYS > 0;
+	}
+
+	@Override
+	public synchronized void run() {
+		if (!isEnabled()) {
+			return;
+		}
+
+		// only roll up complete hours
+		long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+		cutoff -= cutoff % HOUR_MILLIS;
+
+		int hours = 0;
+		int rows = 0;
+		try {
+			while (hours < MAX_HOURS_PER_RUN && !Thread.currentThread().isInterrupted()) {
+				Timestamp oldest = findOldestTimestamp();
+				if (oldest == null || oldest.getTime() >= cutoff) {
+					break;
+				}
+				long hourStart = oldest.getTime() - (oldest.getTime() % HOUR_MILLIS);
+				rows += rollUpHour(hourStart);
+				hours++;
+			}
+		}
+		catch (SQLException e) {
+			LOG.error("Could not apply retention to request log", e);
+		}
+		catch (RuntimeException e) {
+			// do not let the scheduler suppress further executions
+			LOG.error("Could not apply retention to request log", e);
+		}
+
+		if (rows > 0) {
+			LOG.info("Rolled up and deleted " + rows + " request log entries of " + hours + " hour(s)");
+		}
+	}
+
+	private Timestamp findOldestTimestamp() throws SQLException {
+		final Timestamp[] result = new Timestamp[1];
+		database.streamQuery(SQL_OLDEST, null, 1, new LogDatabase.RowHandler() {
+			@Override
+			public void handleRow(ResultSet resultSet) throws SQLException {
+				result[0] = resultSet.getTimestamp(1, utcCalendar);
+			}
+		});
+		return result[0];
+	}
+
+	private int rollUpHour(long hourStart) throws SQLException {
+		Connection connection = database.getConnection();
+		PreparedStatement select = null;
+		PreparedStatement insert = null;
+		PreparedStatement delete = null;
+		try {
+			connection.setAutoCommit(false);
+			Timestamp hourTimestamp = new Timestamp(hourStart);
+
+			select = connection.prepareStatement(SQL_SELECT_HOUR, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			select.setFetchSize(DELETE_BATCH_SIZE);
+			select.setTimestamp(1, hourTimestamp, utcCalendar);
+			select.setTimestamp(2, new Timestamp(hourStart + HOUR_MILLIS), utcCalendar);
+			insert = connection.prepareStatement(SQL_INSERT_HOURLY);
+			delete = connection.prepareStatement(SQL_DELETE);
+
+			HourlyGroup group = null;
+			int rowCount = 0;
+			int pendingDeletes = 0;
+			ResultSet rs = select.executeQuery();
+			try {
+				while (rs.next()) {
+					String resourceType = rs.getString(2);
+					String userName = rs.getString(3);
+					if (group == null || !group.matches(resourceType, userName)) {
+						if (group != null) {
+							group.addTo(insert, hourTimestamp, utcCalendar);
+						}
+						group = new HourlyGroup(resourceType, userName);
+					}
+					group.add(rs.getTimestamp(4, utcCalendar), rs.getTimestamp(5, utcCalendar), rs.getTimestamp(6, utcCalendar));
+
+					delete.setString(1, rs.getString(1));
+					delete.addBatch();
+					rowCount++;
+					if (++pendingDeletes == DELETE_BATCH_SIZE) {
+						delete.executeBatch();
+						pendingDeletes = 0;
+					}
+				}
+			}
+			finally {
+				rs.close();
+			}
+			if (group != null) {
+				group.addTo(insert, hourTimestamp, utcCalendar);
+			}
+
+			insert.executeBatch();
+			if (pendingDeletes > 0) {
+				delete.executeBatch();
+			}
+			connection.commit();
+			return rowCount;
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			database.closeQuietly(select);
+			database.closeQuietly(insert);
+			database.closeQuietly(delete);
+			try {
+				connection.setAutoCommit(true);
+			}
+			catch (SQLException e) {
+				// ignore; pool will validate connection
+			}
+			database.closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Aggregate of all requests of one user for one resource type within one hour.
+	 */
+	private static class HourlyGroup {
+
+		private final String resourceType;
+
+		private final String userName;
+
+		private int requestCount;
+
+		private long[] waitMillis = new long[16];
+
+		private int assignedCount;
+
+		private long busyMillis;
+
+		private HourlyGroup(String resourceType, String userName) {
+			this.resourceType = resourceType;
+			this.userName = userName;
+		}
+
+		private boolean matches(String resourceType, String userName) {
+			return equal(this.resourceType, resourceType) && equal(this.userName, userName);
+		}
+
+		private static boolean equal(String s1, String s2) {
+			return s1 == null ? s2 == null : s1.equals(s2);
+		}
+
+		private void add(Timestamp startWait, Timestamp startWork, Timestamp endWork) {
+			requestCount++;
+			if (startWork != null) {
+				if (assignedCount == waitMillis.length) {
+					waitMillis = Arrays.copyOf(waitMillis, waitMillis.length * 2);
+				}
+				waitMillis[assignedCount++] = Math.max(0, startWork.getTime() - startWait.getTime());
+				if (endWork != null) {
+					busyMillis += Math.max(0, endWork.getTime() - startWork.getTime());
+				}
+			}
+		}
+
+		private void addTo(PreparedStatement insert, Timestamp hour, Calendar utcCalendar) throws SQLException {
+			insert.setTimestamp(1, hour, utcCalendar);
+			insert.setString(2, resourceType);
+			insert.setString(3, userName);
+			insert.setInt(4, requestCount);
+			insert.setInt(5, assignedCount);
+			if (assignedCount == 0) {
+				insert.setNull(6, Types.DOUBLE);
+				insert.setNull(7, Types.DOUBLE);
+			}
+			else {
+				Arrays.sort(waitMillis, 0, assignedCount);
+				long totalWait = 0;
+				for (int i = 0; i < assignedCount; i++) {
+					totalWait += waitMillis[i];
+				}
+				// nearest-rank percentile
+				int p95Index = (int) Math.ceil(assignedCount * 0.95) - 1;
+				insert.setDouble(6, totalWait / (assignedCount * 1000.0));
+				insert.setDouble(7, waitMillis[p95Index] / 1000.0);
+			}
+			insert.setLong(8, TimeUnit.MILLISECONDS.toSeconds(busyMillis));
+			insert.addBatch();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * All changes of one request within one batch of the {@link DatabaseRequestLogger}. Each of the lifecycle commands is
+ * <code>null</code> if it is not part of the batch.
+ */
+final class RequestLogRow {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestLogRow.class);
+
+	final String requestId;
+
+	RequestLogCommand create;
+
+	RequestLogCommand workStarted;
+
+	RequestLogCommand workDone;
+
+	int commandCount;
+
+	RequestLogRow(String requestId) {
+		this.requestId = requestId;
+	}
+
+	void merge(RequestLogCommand command) {
+		switch (command.type) {
+			case CREATE:
+				if (create != null) {
+					LOG.warn("Duplicate request ID " + requestId + " in request log; ignoring second request");
+					return;
+				}
+				create = command;
+				break;
+			case WORK_STARTED:
+				workStarted = command;
+				break;
+			case WORK_DONE:
+				workDone = command;
+				break;
+		}
+		commandCount++;
+	}
+
+}
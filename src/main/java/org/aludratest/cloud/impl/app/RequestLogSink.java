@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.app;
+
+import java.util.Collection;
+
+/**
+ * Persistent storage of the request log. The {@link DatabaseRequestLogger} merges queued commands into rows and passes them to
+ * its sink in batches. Sinks are only called by the logger thread, so implementations need not be thread-safe.
+ */
+interface RequestLogSink {
+
+	/**
+	 * Writes the given rows, as one unit if the sink supports transactions. Rows must be written in the given order, because an
+	 * update row of a request may follow the row creating the request.
+	 * 
+	 * @param rows
+	 *            Rows to write.
+	 * 
+	 * @return <code>true</code> if all rows have been written, <code>false</code> otherwise. Transactional sinks guarantee that
+	 *         none of the rows has been written in this case.
+	 */
+	public boolean writeRows(Collection<RequestLogRow> rows);
+
+	/**
+	 * Flushes and closes the sink. No further rows are written after this call.
+	 */
+	public void close();
+
+}
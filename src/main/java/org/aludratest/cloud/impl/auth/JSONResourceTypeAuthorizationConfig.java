@@ -17,7 +17,10 @@ package org.aludratest.cloud.impl.auth;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.aludratest.cloud.resource.user.MutableResourceTypeAuthorizationConfig;
 import org.aludratest.cloud.resource.user.ResourceTypeAuthorization;
@@ -31,17 +34,26 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
- * An implementation of the Mutable resource type authorization config interface which is based on JSON data.
+ * An implementation of the Mutable resource type authorization config interface which is based on JSON data. <br>
+ * The entries are indexed by user source and user name, and the authorization objects are created once when an entry is read or
+ * modified, so {@link #getResourceTypeAuthorizationForUser(User)} takes constant time and does not allocate any objects.
  * 
  * @author falbrech
  * 
  */
 public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeAuthorizationConfig {
 
-	private JSONArray jsonArray;
+	// in order of the JSON array; entries are never modified once they are in this map
+	private Map<UserKey, Entry> entries = new LinkedHashMap<UserKey, Entry>();
+
+	// same entries, indexed by user source and user name for lookups without allocation
+	private Map<String, Map<String, Entry>> index = new HashMap<String, Map<String, Entry>>();
 
 	private List<User> allUsers = new ArrayList<User>();
 
+	// true as long as the data is shared with the object this one has been copied from
+	private boolean shared;
+
 	/**
 	 * Constructs a new authorization configuration object based on JSON data.
 	 * 
@@ -57,15 +69,19 @@ public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeA
 	 */
 	public JSONResourceTypeAuthorizationConfig(JSONArray jsonArray, UserDatabaseRegistry userDatabaseRegistry)
 			throws JSONException, StoreException {
-		this.jsonArray = jsonArray;
-
-		// build user list using registry
 		for (int i = 0; i < jsonArray.length(); i++) {
 			JSONObject o = jsonArray.getJSONObject(i);
 
 			String source = o.getString("userSource");
 			String userName = o.getString("userName");
+			UserKey key = new UserKey(source, userName);
+			if (entries.containsKey(key)) {
+				// first entry for a user wins
+				continue;
+			}
+			putEntry(key, new Entry(o));
 
+			// build user list using registry
 			UserDatabase db = userDatabaseRegistry.getUserDatabase(source);
 			if (db != null) {
 				User u = db.findUser(userName);
@@ -76,6 +92,20 @@ public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeA
 		}
 	}
 
+	/**
+	 * Constructs a copy of the given authorization configuration object. The data of the given object is shared until this
+	 * object is modified for the first time, so the given object must not be modified after this call.
+	 * 
+	 * @param template
+	 *            Authorization configuration object to copy.
+	 */
+	JSONResourceTypeAuthorizationConfig(JSONResourceTypeAuthorizationConfig template) {
+		this.entries = template.entries;
+		this.index = template.index;
+		this.allUsers = template.allUsers;
+		this.shared = true;
+	}
+
 	/**
 	 * Converts a given authorization configuration object to a JSON array, which then could e.g. be passed to the constructor of
 	 * this class.
@@ -90,43 +120,34 @@ public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeA
 		List<JSONObject> values = new ArrayList<JSONObject>();
 
 		for (User user : config.getConfiguredUsers()) {
-			ResourceTypeAuthorization auth = config.getResourceTypeAuthorizationForUser(user);
-
-			JSONObject obj = new JSONObject();
-			obj.put("userName", user.getName());
-			obj.put("userSource", user.getSource());
-			obj.put("maxResources", auth.getMaxResources());
-			obj.put("niceLevel", auth.getNiceLevel());
-
-			values.add(obj);
+			values.add(toJSONObject(user, config.getResourceTypeAuthorizationForUser(user)));
 		}
 
 		return new JSONArray(values);
 	}
 
 	/**
-	 * Returns the internal JSON array containing the authorization configuration.
+	 * Returns a JSON array containing the authorization configuration. Entries are in the same order as in the JSON array this
+	 * object has been constructed from, followed by added entries.
 	 * 
-	 * @return The internal JSON array containing the authorization configuration.
+	 * @return A JSON array containing the authorization configuration.
 	 */
 	public JSONArray getJsonArray() {
-		return jsonArray;
+		List<JSONObject> values = new ArrayList<JSONObject>(entries.size());
+		for (Entry entry : entries.values()) {
+			values.add(entry.json);
+		}
+		return new JSONArray(values);
 	}
 
 	@Override
 	public ResourceTypeAuthorization getResourceTypeAuthorizationForUser(User user) {
-		try {
-			int i = getUserIndex(user);
-			if (i == -1) {
-				return null;
-			}
-			JSONObject o = jsonArray.getJSONObject(i);
-			return new SimpleResourceTypeAuthorization(o.getInt("maxResources"), o.getInt("niceLevel"));
-		}
-		catch (JSONException e) {
-			// should never occur, because we deal internally with structure
-			throw new RuntimeException(e);
+		Map<String, Entry> sourceEntries = index.get(user.getSource());
+		if (sourceEntries == null) {
+			return null;
 		}
+		Entry entry = sourceEntries.get(user.getName());
+		return entry == null ? null : entry.authorization;
 	}
 
 	@Override
@@ -136,17 +157,15 @@ public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeA
 
 	@Override
 	public void addUser(User user, ResourceTypeAuthorization authorization) throws IllegalArgumentException {
-		try {
-			if (getUserIndex(user) > -1) {
-				throw new IllegalArgumentException("A resource type authorization for user " + user + " is already set.");
-			}
+		UserKey key = new UserKey(user.getSource(), user.getName());
+		if (entries.containsKey(key)) {
+			throw new IllegalArgumentException("A resource type authorization for user " + user + " is already set.");
+		}
 
-			JSONObject o = new JSONObject();
-			o.put("userName", user.getName());
-			o.put("userSource", user.getSource());
-			o.put("maxResources", authorization.getMaxResources());
-			o.put("niceLevel", authorization.getNiceLevel());
-			jsonArray.put(o);
+		try {
+			Entry entry = new Entry(toJSONObject(user, authorization));
+			unshare();
+			putEntry(key, entry);
 			allUsers.add(user);
 		}
 		catch (JSONException e) {
@@ -157,40 +176,33 @@ public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeA
 
 	@Override
 	public void removeUser(User user) throws IllegalArgumentException {
-		try {
-			int index = getUserIndex(user);
-			if (index == -1) {
-				throw new IllegalArgumentException("No resource type authorization for user " + user + " is set.");
-			}
-
-			List<JSONObject> ls = new ArrayList<JSONObject>();
-			for (int i = 0; i < index; i++) {
-				ls.add(jsonArray.getJSONObject(i));
-			}
-			for (int i = index + 1; i < jsonArray.length(); i++) {
-				ls.add(jsonArray.getJSONObject(i));
-			}
-
-			jsonArray = new JSONArray(ls);
-			allUsers.remove(user);
-		}
-		catch (JSONException e) {
-			// should never occur, because we deal internally with structure
-			throw new RuntimeException(e);
+		UserKey key = new UserKey(user.getSource(), user.getName());
+		if (!entries.containsKey(key)) {
+			throw new IllegalArgumentException("No resource type authorization for user " + user + " is set.");
 		}
+
+		unshare();
+		entries.remove(key);
+		index.get(key.source).remove(key.name);
+		allUsers.remove(user);
 	}
 
 	@Override
 	public void editUserAuthorization(User user, ResourceTypeAuthorization newAuthorization) throws IllegalArgumentException {
-		try {
-			int index = getUserIndex(user);
-			if (index == -1) {
-				throw new IllegalArgumentException("No resource type authorization for user " + user + " is set.");
-			}
+		UserKey key = new UserKey(user.getSource(), user.getName());
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			throw new IllegalArgumentException("No resource type authorization for user " + user + " is set.");
+		}
 
-			JSONObject o = jsonArray.getJSONObject(index);
+		try {
+			// copy JSON object, as it may be shared with other configuration objects
+			JSONObject o = new JSONObject(entry.json, JSONObject.getNames(entry.json));
 			o.put("maxResources", newAuthorization.getMaxResources());
 			o.put("niceLevel", newAuthorization.getNiceLevel());
+			Entry newEntry = new Entry(o);
+			unshare();
+			putEntry(key, newEntry);
 		}
 		catch (JSONException e) {
 			// should never occur, because we deal internally with structure
@@ -198,15 +210,78 @@ public class JSONResourceTypeAuthorizationConfig implements MutableResourceTypeA
 		}
 	}
 
-	private int getUserIndex(User user) throws JSONException {
-		for (int i = 0; i < jsonArray.length(); i++) {
-			JSONObject o = jsonArray.getJSONObject(i);
-			if (user.getName().equals(o.getString("userName")) && user.getSource().equals(o.getString("userSource"))) {
-				return i;
+	private void unshare() {
+		if (shared) {
+			entries = new LinkedHashMap<UserKey, Entry>(entries);
+			Map<String, Map<String, Entry>> newIndex = new HashMap<String, Map<String, Entry>>();
+			for (Map.Entry<String, Map<String, Entry>> sourceEntries : index.entrySet()) {
+				newIndex.put(sourceEntries.getKey(), new HashMap<String, Entry>(sourceEntries.getValue()));
+			}
+			index = newIndex;
+			allUsers = new ArrayList<User>(allUsers);
+			shared = false;
+		}
+	}
+
+	private void putEntry(UserKey key, Entry entry) {
+		entries.put(key, entry);
+		Map<String, Entry> sourceEntries = index.get(key.source);
+		if (sourceEntries == null) {
+			index.put(key.source, sourceEntries = new HashMap<String, Entry>());
+		}
+		sourceEntries.put(key.name, entry);
+	}
+
+	private static JSONObject toJSONObject(User user, ResourceTypeAuthorization authorization) throws JSONException {
+		JSONObject obj = new JSONObject();
+		obj.put("userName", user.getName());
+		obj.put("userSource", user.getSource());
+		obj.put("maxResources", authorization.getMaxResources());
+		obj.put("niceLevel", authorization.getNiceLevel());
+		return obj;
+	}
+
+	private static class Entry {
+
+		private final JSONObject json;
+
+		private final ResourceTypeAuthorization authorization;
+
+		public Entry(JSONObject json) {
+			this.json = json;
+			this.authorization = new SimpleResourceTypeAuthorization(json.optInt("maxResources"), json.optInt("niceLevel"));
+		}
+
+	}
+
+	private static final class UserKey {
+
+		private final String source;
+
+		private final String name;
+
+		public UserKey(String source, String name) {
+			this.source = source;
+			this.name = name;
+		}
+
+		@Override
+		public int hashCode() {
+			return source.hashCode() * 31 + name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof UserKey)) {
+				return false;
 			}
+			UserKey key = (UserKey) obj;
+			return key.source.equals(source) && key.name.equals(name);
 		}
 
-		return -1;
 	}
 
 }
@@ -19,6 +19,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.aludratest.cloud.impl.ImplConstants;
 import org.aludratest.cloud.resource.ResourceType;
@@ -35,7 +37,14 @@ import org.json.JSONObject;
 
 /**
  * Implementation of an Authorization Store which is based on a JSON file. By default, this file is located in the user's home
- * directory (<code>~/.atcloudmanager/resourceAuth.json</code>). You can change the location using {@link #setStoreFile(String)}.
+ * directory (<code>~/.atcloudmanager/resourceAuth.json</code>). You can change the location using {@link #setStoreFile(String)}. <br>
+ * The parsed contents of the file are cached in memory. The cache is invalidated when authorizations are saved, or when the
+ * modification time or size of the file changes. The file is checked for changes at most every two seconds, so frequent calls
+ * to {@link #loadResourceTypeAuthorizations(ResourceType)} do not touch the file system. Each call returns a new configuration
+ * object sharing the cached data; it is copied only when the returned object is modified. <br>
+ * The user objects of the configured users are looked up in the user databases once per cached file state. Users which are
+ * created in or removed from a user database afterwards are therefore only reflected by the configurations when the
+ * authorizations are saved again, or when the file is modified.
  * 
  * @author falbrech
  * 
@@ -49,21 +58,20 @@ public class LocalResourceTypeAuthorizationStore implements ResourceTypeAuthoriz
 	@Configuration(value = "~/" + ImplConstants.CONFIG_DIR_NAME + "/resourceAuth.json")
 	private String storeFile;
 
+	private static final long FILE_CHECK_INTERVAL = 2000;
+
+	private volatile Snapshot snapshot;
+
 	@Override
 	public ResourceTypeAuthorizationConfig loadResourceTypeAuthorizations(ResourceType resourceType)
 			throws StoreException {
-		try {
-			return new JSONResourceTypeAuthorizationConfig(load().getJSONArray(resourceType.getName()), userDatabaseRegistry);
-		}
-		catch (JSONException e) {
-			// no such element in map
-			return null;
-		}
+		JSONResourceTypeAuthorizationConfig config = getSnapshot().getConfig(resourceType.getName());
+		return config == null ? null : new JSONResourceTypeAuthorizationConfig(config);
 	}
 
 	@Override
-	public void saveResourceTypeAuthorizations(ResourceType resourceType, ResourceTypeAuthorizationConfig authorizations)
-			throws StoreException {
+	public synchronized void saveResourceTypeAuthorizations(ResourceType resourceType,
+			ResourceTypeAuthorizationConfig authorizations) throws StoreException {
 		FileOutputStream fos = null;
 
 		try {
@@ -88,6 +96,35 @@ public class LocalResourceTypeAuthorizationStore implements ResourceTypeAuthoriz
 		}
 		finally {
 			IOUtils.closeQuietly(fos);
+			// under the same monitor as the reload, so a snapshot of the old contents cannot be published afterwards
+			snapshot = null;
+		}
+	}
+
+	private Snapshot getSnapshot() throws StoreException {
+		Snapshot current = snapshot;
+		long now = System.currentTimeMillis();
+		if (current != null && now - current.lastCheck < FILE_CHECK_INTERVAL) {
+			return current;
+		}
+
+		File file = getFile();
+		if (current != null && current.isUpToDate(file)) {
+			current.lastCheck = now;
+			return current;
+		}
+
+		synchronized (this) {
+			// could have been reloaded by another thread
+			current = snapshot;
+			if (current == null || !current.isUpToDate(file)) {
+				long lastModified = file.lastModified();
+				long length = file.length();
+				current = new Snapshot(file, lastModified, length, load());
+				snapshot = current;
+			}
+			current.lastCheck = now;
+			return current;
 		}
 	}
 
@@ -128,6 +165,7 @@ public class LocalResourceTypeAuthorizationStore implements ResourceTypeAuthoriz
 	 */
 	public synchronized void setStoreFile(String storeFile) {
 		this.storeFile = storeFile;
+		snapshot = null;
 	}
 
 	/**
@@ -139,4 +177,56 @@ public class LocalResourceTypeAuthorizationStore implements ResourceTypeAuthoriz
 		return storeFile;
 	}
 
+	private class Snapshot {
+
+		private final File file;
+
+		private final long lastModified;
+
+		private final long length;
+
+		// never modified after creation
+		private final JSONObject contents;
+
+		// user objects are resolved once per snapshot, see class comment
+		private final ConcurrentMap<String, JSONResourceTypeAuthorizationConfig> configs = new ConcurrentHashMap<String, JSONResourceTypeAuthorizationConfig>();
+
+		private volatile long lastCheck;
+
+		public Snapshot(File file, long lastModified, long length, JSONObject contents) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.contents = contents;
+		}
+
+		public boolean isUpToDate(File file) {
+			return this.file.equals(file) && file.lastModified() == lastModified && file.length() == length;
+		}
+
+		public JSONResourceTypeAuthorizationConfig getConfig(String resourceTypeName) throws StoreException {
+			if (!contents.has(resourceTypeName)) {
+				return null;
+			}
+
+			JSONResourceTypeAuthorizationConfig config = configs.get(resourceTypeName);
+			if (config == null) {
+				try {
+					config = new JSONResourceTypeAuthorizationConfig(contents.getJSONArray(resourceTypeName),
+							userDatabaseRegistry);
+				}
+				catch (JSONException e) {
+					// not a valid array
+					return null;
+				}
+				JSONResourceTypeAuthorizationConfig existing = configs.putIfAbsent(resourceTypeName, config);
+				if (existing != null) {
+					config = existing;
+				}
+			}
+			return config;
+		}
+
+	}
+
 }
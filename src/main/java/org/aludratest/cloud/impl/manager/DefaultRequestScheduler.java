@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.manager;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aludratest.cloud.manager.ManagedResourceQuery;
+import org.aludratest.cloud.resource.ResourceType;
+import org.aludratest.cloud.resource.user.ResourceTypeAuthorization;
+import org.aludratest.cloud.user.User;
+import org.codehaus.plexus.component.annotations.Component;
+
+/**
+ * Default scheduler, ordering the waiting requests by a score. The request with the <b>least</b> score is offered a free
+ * resource first. The score of a request is its waiting time, multiplied by a weight which is derived from the <i>nice level</i>
+ * of the requesting user and the ratio of resources the user currently uses. <br>
+ * As all requests of a user share the same weight, the requests are kept in one FIFO lane per user and resource type. The weight
+ * of a lane is calculated once and only recalculated when the resource usage of its user or the authorization of its user
+ * changes. Selecting the next request merges the heads of all lanes in a priority heap, so only the requests actually inspected
+ * by the caller are scored.
+ *
+ */
+@Component(role = RequestScheduler.class, instantiationStrategy = "per-lookup")
+public class DefaultRequestScheduler implements RequestScheduler {
+
+	private static final int NORMALIZE_DIFF = 20;
+
+	private AtomicLong nextSequence = new AtomicLong();
+
+	private ConcurrentMap<ManagedResourceQuery, ScheduledRequest> requests = new ConcurrentHashMap<ManagedResourceQuery, ScheduledRequest>();
+
+	private ConcurrentMap<ResourceType, TypeQueue> typeQueues = new ConcurrentHashMap<ResourceType, TypeQueue>();
+
+	private AtomicInteger totalSize = new AtomicInteger();
+
+	@Override
+	public boolean addRequest(ManagedResourceQuery request) {
+		ScheduledRequest entry = new ScheduledRequest(request, nextSequence.incrementAndGet());
+		if (requests.putIfAbsent(request, entry) != null) {
+			return false;
+		}
+
+		TypeQueue queue = getTypeQueue(request.getRequest().getResourceType());
+		queue.getLane(request.getRequest().getRequestingUser()).entries.put(Long.valueOf(entry.sequence), entry);
+		queue.size.incrementAndGet();
+		totalSize.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public boolean removeRequest(ManagedResourceQuery request) {
+		ScheduledRequest entry = requests.remove(request);
+		if (entry == null) {
+			return false;
+		}
+
+		TypeQueue queue = getTypeQueue(request.getRequest().getResourceType());
+		queue.getLane(request.getRequest().getRequestingUser()).entries.remove(Long.valueOf(entry.sequence));
+		queue.size.decrementAndGet();
+		totalSize.decrementAndGet();
+		return true;
+	}
+
+	@Override
+	public boolean containsRequest(ManagedResourceQuery request) {
+		return requests.containsKey(request);
+	}
+
+	@Override
+	public void userUsageChanged(ResourceType resourceType, User user) {
+		TypeQueue queue = typeQueues.get(resourceType);
+		if (queue != null) {
+			UserLane lane = queue.lanes.get(user);
+			if (lane != null) {
+				lane.dirty = true;
+			}
+		}
+	}
+
+	@Override
+	public Iterator<ManagedResourceQuery> getScheduledRequests(ResourceType resourceType, SchedulingContext context) {
+		TypeQueue queue = typeQueues.get(resourceType);
+		if (queue == null || queue.size.get() == 0) {
+			return Collections.<ManagedResourceQuery> emptyList().iterator();
+		}
+
+		return new ScheduleIterator(queue, context, System.currentTimeMillis());
+	}
+
+	@Override
+	public int getQueueSize(ResourceType resourceType) {
+		TypeQueue queue = typeQueues.get(resourceType);
+		return queue == null ? 0 : queue.size.get();
+	}
+
+	@Override
+	public int getQueueSize() {
+		return totalSize.get();
+	}
+
+	@Override
+	public void clear() {
+		requests.clear();
+		typeQueues.clear();
+		totalSize.set(0);
+	}
+
+	private TypeQueue getTypeQueue(ResourceType resourceType) {
+		TypeQueue queue = typeQueues.get(resourceType);
+		if (queue == null) {
+			queue = new TypeQueue();
+			TypeQueue existing = typeQueues.putIfAbsent(resourceType, queue);
+			if (existing != null) {
+				queue = existing;
+			}
+		}
+		return queue;
+	}
+
+	private static int calculateWeight(ResourceTypeAuthorization auth, int usedResources, int totalResourceCount) {
+		int normalizedNiceLevel = auth.getNiceLevel() - NORMALIZE_DIFF;
+		double userMax = Math.min(auth.getMaxResources(), totalResourceCount);
+		if (userMax == 0) {
+			return 0;
+		}
+		normalizedNiceLevel -= (int) ((usedResources / userMax) * normalizedNiceLevel);
+		return normalizedNiceLevel;
+	}
+
+	private static class ScheduledRequest {
+
+		private final ManagedResourceQuery request;
+
+		private final long sequence;
+
+		private final long enqueueMillis;
+
+		public ScheduledRequest(ManagedResourceQuery request, long sequence) {
+			this.request = request;
+			this.sequence = sequence;
+			this.enqueueMillis = request.getEnqueueStartTime().getMillis();
+		}
+
+	}
+
+	private static class TypeQueue {
+
+		private ConcurrentMap<User, UserLane> lanes = new ConcurrentHashMap<User, UserLane>();
+
+		private AtomicInteger size = new AtomicInteger();
+
+		private UserLane getLane(User user) {
+			UserLane lane = lanes.get(user);
+			if (lane == null) {
+				lane = new UserLane(user);
+				UserLane existing = lanes.putIfAbsent(user, lane);
+				if (existing != null) {
+					lane = existing;
+				}
+			}
+			return lane;
+		}
+
+	}
+
+	private static class UserLane {
+
+		private final User user;
+
+		private final ConcurrentSkipListMap<Long, ScheduledRequest> entries = new ConcurrentSkipListMap<Long, ScheduledRequest>();
+
+		private volatile boolean dirty = true;
+
+		// scoring inputs, recalculated only when dirty or when the context changed
+		private ResourceTypeAuthorization auth;
+
+		private int totalResourceCount;
+
+		private boolean eligible;
+
+		private int weight;
+
+		public UserLane(User user) {
+			this.user = user;
+		}
+
+		public synchronized boolean refresh(SchedulingContext context) {
+			ResourceTypeAuthorization currentAuth = context.getAuthorizationConfig().getResourceTypeAuthorizationForUser(user);
+			int total = context.getTotalResourceCount();
+			if (dirty || !sameAuthorization(currentAuth, auth) || total != totalResourceCount) {
+				// reset flag before reading usage, so concurrent changes mark the lane dirty again
+				dirty = false;
+				auth = currentAuth;
+				totalResourceCount = total;
+
+				int usedResources = context.getUsedResourceCount(user);
+				eligible = auth != null && usedResources < auth.getMaxResources();
+				weight = eligible ? calculateWeight(auth, usedResources, total) : 0;
+			}
+			return eligible;
+		}
+
+		private static boolean sameAuthorization(ResourceTypeAuthorization a1, ResourceTypeAuthorization a2) {
+			if (a1 == a2) {
+				return true;
+			}
+			if (a1 == null || a2 == null) {
+				return false;
+			}
+			return a1.getMaxResources() == a2.getMaxResources() && a1.getNiceLevel() == a2.getNiceLevel();
+		}
+
+		public synchronized int getWeight() {
+			return weight;
+		}
+
+	}
+
+	private class LaneCursor {
+
+		private final UserLane lane;
+
+		private final int weight;
+
+		private final long now;
+
+		private final Iterator<ScheduledRequest> iterator;
+
+		private ScheduledRequest current;
+
+		private long score;
+
+		public LaneCursor(UserLane lane, long now) {
+			this.lane = lane;
+			this.weight = lane.getWeight();
+			this.now = now;
+			// a positive weight prefers the requests waiting for the shortest time
+			this.iterator = weight > 0 ? lane.entries.descendingMap().values().iterator() : lane.entries.values().iterator();
+		}
+
+		public boolean advance() {
+			while (iterator.hasNext()) {
+				ScheduledRequest entry = iterator.next();
+				if (requests.get(entry.request) == entry) {
+					current = entry;
+					score = Math.max(1, now - entry.enqueueMillis) * weight;
+					return true;
+				}
+				// stale entry, left over from a concurrent add / remove
+				lane.entries.remove(Long.valueOf(entry.sequence), entry);
+			}
+			current = null;
+			return false;
+		}
+
+	}
+
+	private static final Comparator<LaneCursor> CURSOR_COMPARATOR = new Comparator<LaneCursor>() {
+		@Override
+		public int compare(LaneCursor c1, LaneCursor c2) {
+			if (c1.score != c2.score) {
+				return c1.score < c2.score ? -1 : 1;
+			}
+			if (c1.current.sequence != c2.current.sequence) {
+				return c1.current.sequence < c2.current.sequence ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	private class ScheduleIterator implements Iterator<ManagedResourceQuery> {
+
+		private PriorityQueue<LaneCursor> heap;
+
+		public ScheduleIterator(TypeQueue queue, SchedulingContext context, long now) {
+			heap = new PriorityQueue<LaneCursor>(Math.max(1, queue.lanes.size()), CURSOR_COMPARATOR);
+			for (UserLane lane : queue.lanes.values()) {
+				if (!lane.entries.isEmpty() && lane.refresh(context)) {
+					LaneCursor cursor = new LaneCursor(lane, now);
+					if (cursor.advance()) {
+						heap.add(cursor);
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heap.isEmpty();
+		}
+
+		@Override
+		public ManagedResourceQuery next() {
+			LaneCursor cursor = heap.poll();
+			if (cursor == null) {
+				throw new NoSuchElementException();
+			}
+			ManagedResourceQuery result = cursor.current.request;
+			if (cursor.advance()) {
+				heap.add(cursor);
+			}
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -17,18 +17,19 @@ package org.aludratest.cloud.impl.manager;
 
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.JMException;
@@ -37,6 +38,9 @@ import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 
 import org.aludratest.cloud.app.CloudManagerApp;
+import org.aludratest.cloud.impl.metrics.RequestMetrics;
+import org.aludratest.cloud.impl.metrics.RequestMetrics.Metric;
+import org.aludratest.cloud.impl.metrics.ResourceGauges;
 import org.aludratest.cloud.manager.ManagedResourceQuery;
 import org.aludratest.cloud.manager.ResourceManager;
 import org.aludratest.cloud.manager.ResourceManagerListener;
@@ -57,8 +61,8 @@ import org.aludratest.cloud.resourcegroup.ResourceGroupManagerListener;
 import org.aludratest.cloud.user.StoreException;
 import org.aludratest.cloud.user.User;
 import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.component.annotations.Requirement;
 import org.joda.time.DateTime;
-import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,11 +72,15 @@ import org.slf4j.LoggerFactory;
  * <li>A new request is submitted, or</li>
  * <li>A resource becomes available.</li>
  * </ul>
- * In the first case, an available resource is searched which could be assigned to the request. In the second case, a matching
- * request is searched in the queue of requests. <br>
- * If multiple requests are waiting, they will be scored, and the request with the <b>least</b> score will receive the resource.
- * Note that the score is calculated, among other factors, based on the <i>nice Level</i> of the request and / or the user, so it
- * can be a negative value (which is why a nice level of -19 will give you highest priority for receiving resources).
+ * In both cases, the idle resources are matched against the queue of requests. <br>
+ * Events are processed by one worker per resource type, each with its own bounded event queue, so a slow resource module only
+ * delays the assignments for its own resource type. A worker drains all pending events of its queue at once and handles them in
+ * a single matching pass, so many resources becoming available at the same time are assigned to the best N requests in one go.
+ * The capacity of each event queue can be configured using the system property <code>acm.manager.eventQueueSize</code>. <br>
+ * If multiple requests are waiting, the {@link RequestScheduler} decides which request will receive the resource. The default
+ * scheduler scores the requests, and the request with the <b>least</b> score will receive the resource. Note that the score is
+ * calculated, among other factors, based on the <i>nice Level</i> of the request and / or the user, so it can be a negative
+ * value (which is why a nice level of -19 will give you highest priority for receiving resources).
  * 
  * @author falbrech
  * 
@@ -83,11 +91,23 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(DefaultResourceManagerImpl.class);
 
+	private static final int EVENT_QUEUE_SIZE = Integer.getInteger("acm.manager.eventQueueSize", 1000).intValue();
+
 	private ResourceGroupManager groupManager;
 
-	private List<WaitingResourceRequest> queue = new LinkedList<WaitingResourceRequest>();
+	@Requirement
+	private RequestScheduler requestScheduler;
+
+	@Requirement
+	private RequestMetrics requestMetrics;
+
+	@Requirement
+	private ResourceGauges resourceGauges;
+
+	// running requests, indexed by their received resource
+	private ConcurrentMap<Resource, WaitingResourceRequest> runningJobs = new ConcurrentHashMap<Resource, WaitingResourceRequest>();
 
-	private Set<WaitingResourceRequest> runningJobs = new HashSet<WaitingResourceRequest>();
+	private ResourceUsageCounter usageCounter = new ResourceUsageCounter();
 
 	private Map<ResourceType, Set<Resource>> idleResources = new HashMap<ResourceType, Set<Resource>>();
 
@@ -95,7 +115,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 
 	private ExecutorService queueWorkerService;
 
-	private RequestQueueWorker queueWorker;
+	private ConcurrentMap<ResourceType, RequestQueueWorker> queueWorkers = new ConcurrentHashMap<ResourceType, RequestQueueWorker>();
 
 	// MBean infrastructure
 	private AtomicInteger nextResourceId = new AtomicInteger();
@@ -108,11 +128,8 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 			throw new IllegalStateException("This resource manager has already been started");
 		}
 
-		// start queue worker
-		queueWorker = new RequestQueueWorker();
-
-		queueWorkerService = Executors.newFixedThreadPool(1);
-		queueWorkerService.execute(queueWorker);
+		// queue workers are started on demand, one per resource type
+		queueWorkerService = Executors.newCachedThreadPool();
 
 		this.groupManager = resourceGroupManager;
 		groupManager.addResourceGroupManagerListener(this);
@@ -139,10 +156,22 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 	public void handleResourceRequest(ResourceRequest request) {
 		WaitingResourceRequest waitingRequest = new WaitingResourceRequest(request);
 		fireRequestEnqueued(waitingRequest);
-		synchronized (queueWorker) {
-			queue.add(waitingRequest);
-			queueWorker.handleNewRequest(waitingRequest);
-		}
+		requestScheduler.addRequest(waitingRequest);
+		getQueueWorker(request.getResourceType()).handleNewRequest(waitingRequest);
+	}
+
+	/**
+	 * Removes the given request from the queue of waiting requests, e.g. because its client is no longer interested in a
+	 * resource. Has no effect if a resource is already being assigned to the request.
+	 *
+	 * @param request
+	 *            Request to remove, as passed to {@link #handleResourceRequest(ResourceRequest)}.
+	 *
+	 * @return <code>true</code> if the request has been removed from the queue, <code>false</code> if it was not waiting.
+	 */
+	public boolean cancelResourceRequest(ResourceRequest request) {
+		// waiting requests are equal if they wrap the same request
+		return requestScheduler.removeRequest(new WaitingResourceRequest(request));
 	}
 
 	@Override
@@ -151,25 +180,40 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 			queueWorkerService.shutdownNow();
 			queueWorkerService = null;
 		}
-		queue.clear();
+		queueWorkers.clear();
+		requestScheduler.clear();
 		runningJobs.clear();
-		queueWorker = null;
+		usageCounter.clear();
+		resourceGauges.clear();
+	}
+
+	private RequestQueueWorker getQueueWorker(ResourceType resourceType) {
+		RequestQueueWorker worker = queueWorkers.get(resourceType);
+		if (worker == null) {
+			ExecutorService service = queueWorkerService;
+			if (service == null) {
+				throw new IllegalStateException("This resource manager has not been started");
+			}
+			worker = new RequestQueueWorker(resourceType);
+			RequestQueueWorker existing = queueWorkers.putIfAbsent(resourceType, worker);
+			if (existing != null) {
+				worker = existing;
+			}
+			else {
+				service.execute(worker);
+			}
+		}
+		return worker;
 	}
 
 	@Override
 	public int getTotalQueueSize() {
-		synchronized (queueWorker) {
-			return queue.size();
-		}
+		return requestScheduler.getQueueSize();
 	}
 
 	@Override
 	public List<? extends ManagedResourceQuery> getAllRunningQueries() {
-		List<WaitingResourceRequest> result;
-		synchronized (queueWorker) {
-			result = new ArrayList<WaitingResourceRequest>(runningJobs);
-		}
-		return result;
+		return new ArrayList<WaitingResourceRequest>(runningJobs.values());
 	}
 
 	@Override
@@ -178,7 +222,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 
 		if (resource.getState() == ResourceState.READY) {
 			putIntoIdle(resource);
-			queueWorker.handleResourceAvailable(resource);
+			getQueueWorker(resource.getResourceType()).handleResourceAvailable(resource);
 		}
 	}
 
@@ -215,6 +259,12 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 		return false;
 	}
 
+	private synchronized Set<Resource> getIdleResources(ResourceType resourceType) {
+		Set<Resource> idles = idleResources.get(resourceType);
+		// copy set to avoid concurrent modification
+		return idles == null ? new HashSet<Resource>() : new HashSet<Resource>(idles);
+	}
+
 	private synchronized void removeFromIdle(Resource resource) {
 		Set<Resource> idles = idleResources.get(resource.getResourceType());
 		if (idles != null) {
@@ -225,6 +275,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 	@Override
 	public void resourceRemoved(Resource resource) {
 		resource.removeResourceListener(this);
+		removeFromIdle(resource);
 
 		Integer id = resourceIds.remove(resource);
 		if (id != null) {
@@ -245,6 +296,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 	
 	@Override
 	public void resourceGroupAdded(ResourceGroup group) {
+		resourceGauges.groupAdded(group);
 		group.getResourceCollection().addResourceCollectionListener(this);
 		for (ResourceStateHolder rsh : group.getResourceCollection()) {
 			Resource res = (Resource) rsh;
@@ -262,6 +314,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 		for (ResourceStateHolder rsh : group.getResourceCollection()) {
 			resourceRemoved((Resource) rsh);
 		}
+		resourceGauges.groupRemoved(group);
 	}
 
 	@Override
@@ -281,7 +334,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 			switch (newState) {
 				case READY:
 					putIntoIdle(resource);
-					queueWorker.handleResourceAvailable(resource);
+					getQueueWorker(resource.getResourceType()).handleResourceAvailable(resource);
 					break;
 				default:
 					// nothing to do
@@ -343,22 +396,17 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 	}
 
 	private void checkReleasedResource(Resource resource) {
-		WaitingResourceRequest request = null;
-		synchronized (queueWorker) {
-			for (WaitingResourceRequest r : runningJobs) {
-				if (resource.equals(r.getReceivedResource())) {
-					request = r;
-					break;
-				}
-			}
-		}
-
+		WaitingResourceRequest request = runningJobs.remove(resource);
 		if (request != null) {
+			ResourceType resourceType = request.getRequest().getResourceType();
+			User user = request.getRequest().getRequestingUser();
+			usageCounter.decrement(resourceType, user);
+			requestScheduler.userUsageChanged(resourceType, user);
+
 			LOGGER.debug("Request " + request + " has released resource " + resource);
-			synchronized (queueWorker) {
-				runningJobs.remove(request);
-			}
 			request.resourceReleasedTime = DateTime.now();
+			requestMetrics.record(Metric.WORK_TIME, resourceType.getName(), user.getName(),
+					TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.resourceReceivedNanos));
 			fireResourceReleased(request, resource);
 		}
 	}
@@ -366,63 +414,125 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 	/* MBean methods */
 	@Override
 	public int getIdleResourceCount() {
-		int result = 0;
-		synchronized (this) {
-			for (Set<Resource> rs : idleResources.values()) {
-				result += rs.size();
-			}
+		return resourceGauges.getTotalCount(ResourceState.READY);
+	}
+
+	@Override
+	public int getInUseResourceCount() {
+		return resourceGauges.getTotalCount(ResourceState.IN_USE);
+	}
+
+	@Override
+	public Map<String, Integer> getQueueSizePerResourceType() {
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+		for (ResourceType resourceType : queueWorkers.keySet()) {
+			result.put(resourceType.getName(), Integer.valueOf(requestScheduler.getQueueSize(resourceType)));
 		}
 		return result;
 	}
 
 	@Override
 	public int getRunningQueriesCount() {
-		return getAllRunningQueries().size();
+		return runningJobs.size();
+	}
+
+	@Override
+	public Map<String, Integer> getRunningQueriesPerUser() {
+		return usageCounter.toMap();
+	}
+
+	@Override
+	public Map<String, Map<String, Integer>> getRunningQueriesPerResourceTypeAndUser() {
+		return usageCounter.toResourceTypeMap();
+	}
+
+	@Override
+	public int getPendingEventCount() {
+		int result = 0;
+		for (RequestQueueWorker worker : queueWorkers.values()) {
+			result += worker.events.size();
+		}
+		return result;
+	}
+
+	@Override
+	public double getAverageEventLatencyMillis() {
+		long count = 0;
+		long totalNanos = 0;
+		for (RequestQueueWorker worker : queueWorkers.values()) {
+			count += worker.events.getProcessedCount();
+			totalNanos += worker.events.getTotalLatencyNanos();
+		}
+		return count == 0 ? 0 : totalNanos / (count * 1000000.0);
+	}
+
+	@Override
+	public long getMaxEventLatencyMillis() {
+		long maxNanos = 0;
+		for (RequestQueueWorker worker : queueWorkers.values()) {
+			maxNanos = Math.max(maxNanos, worker.events.getMaxLatencyNanos());
+		}
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos);
 	}
 
 	private class RequestQueueWorker implements Runnable {
 
-		private List<Object> events = new ArrayList<Object>();
+		private ResourceType resourceType;
+
+		private EventQueue<Object> events = new EventQueue<Object>(EVENT_QUEUE_SIZE);
+
+		// set when a resource event could not be queued; all idle resources are checked again then
+		private AtomicBoolean rescanIdles = new AtomicBoolean();
+
+		public RequestQueueWorker(ResourceType resourceType) {
+			this.resourceType = resourceType;
+		}
 
-		public synchronized void handleNewRequest(WaitingResourceRequest request) {
+		public void handleNewRequest(WaitingResourceRequest request) {
+			// requests must never be dropped, as they have to be validated; their number is limited by the clients anyway
 			events.add(request);
-			notify();
 		}
 
-		public synchronized void handleResourceAvailable(Resource resource) {
-			events.add(resource);
-			notify();
+		public void handleResourceAvailable(Resource resource) {
+			if (!events.offer(resource)) {
+				LOGGER.debug("Event queue for resource type " + resourceType + " is full, scheduling rescan of idle resources");
+				rescanIdles.set(true);
+			}
 		}
 
 		@Override
 		public void run() {
+			Thread.currentThread().setName("ACM Request Queue Worker (" + resourceType.getName() + ")");
+			List<WaitingResourceRequest> newRequests = new ArrayList<WaitingResourceRequest>();
 			while (!Thread.interrupted()) {
 				Object nextEvent;
-				synchronized (this) {
-					// wait for an event
-					while (events.isEmpty()) {
-						try {
-							wait(5000);
-						}
-						catch (InterruptedException e) {
-							return;
-						}
-					}
+				try {
+					nextEvent = events.poll(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
 
-					nextEvent = events.remove(0);
+				// drain all pending events, so they can be handled in one matching pass
+				boolean resourcesAvailable = false;
+				newRequests.clear();
+				while (nextEvent != null) {
+					if (nextEvent instanceof WaitingResourceRequest) {
+						newRequests.add((WaitingResourceRequest) nextEvent);
+					}
+					else {
+						resourcesAvailable = true;
+					}
+					nextEvent = events.poll();
+				}
+				if (rescanIdles.getAndSet(false)) {
+					resourcesAvailable = true;
 				}
 
 				// never die due to exception
 				try {
-					if (nextEvent instanceof WaitingResourceRequest) {
-						checkResourceForRequest((WaitingResourceRequest) nextEvent);
-					}
-					else if (nextEvent instanceof Resource) {
-						Resource res = (Resource) nextEvent;
-						if (res.getState() == ResourceState.READY && isInIdle(res) && !checkRequestForResource(res)) {
-							// add to idles
-							putIntoIdle(res);
-						}
+					if (!newRequests.isEmpty() || resourcesAvailable) {
+						handleEvents(newRequests, resourcesAvailable);
 					}
 				}
 				catch (Throwable t) {
@@ -431,23 +541,55 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 			}
 		}
 
-		private void checkResourceForRequest(WaitingResourceRequest request) {
-			LOGGER.debug("Checking resource for request " + request);
-			// determine available resources for this request
-			ResourceType resourceType = request.getRequest().getResourceType();
-
+		private void handleEvents(List<WaitingResourceRequest> newRequests, boolean resourcesAvailable) {
 			ResourceModule module = CloudManagerApp.getInstance().getResourceModule(resourceType);
 			if (module == null) {
-				fireError(request, "No resources of type " + resourceType + " available in this manager.");
+				for (WaitingResourceRequest request : newRequests) {
+					rejectRequest(request, "No resources of type " + resourceType + " available in this manager.");
+				}
+				return;
+			}
+
+			// authorization is loaded only once for the whole batch
+			ResourceTypeAuthorizationConfig authStore;
+			try {
+				authStore = CloudManagerApp.getInstance().getResourceTypeAuthorizationStore()
+						.loadResourceTypeAuthorizations(resourceType);
+			}
+			catch (StoreException e) {
+				LOGGER.error("Could not load resource type authorization for resource type " + resourceType, e);
+				return;
+			}
+			if (authStore == null) {
+				// no user is authorized for this resource type
+				for (WaitingResourceRequest request : newRequests) {
+					rejectRequest(request, "User does not have access to resource type " + resourceType);
+				}
 				return;
 			}
 
+			boolean validRequestFound = false;
+			for (WaitingResourceRequest request : newRequests) {
+				if (checkNewRequest(request, authStore)) {
+					validRequestFound = true;
+				}
+			}
+
+			if (validRequestFound || resourcesAvailable) {
+				assignIdleResources(module, authStore);
+			}
+		}
+
+		private boolean checkNewRequest(WaitingResourceRequest request, ResourceTypeAuthorizationConfig authStore) {
+			LOGGER.debug("Checking new request " + request);
+
 			// check if there are ANY resource groups for this type, where the user has access
 			User user = request.getRequest().getRequestingUser();
 			boolean groupFound = false;
 			for (int groupId : groupManager.getAllResourceGroupIds()) {
 				ResourceGroup group = groupManager.getResourceGroup(groupId);
-				if (resourceType.equals(group.getResourceType()) && group.getResourceCollection().getResourceCount() > 0) {
+				if (group != null && resourceType.equals(group.getResourceType())
+						&& group.getResourceCollection().getResourceCount() > 0) {
 					if (group instanceof AuthorizingResourceGroup) {
 						AuthorizingResourceGroup authGroup = (AuthorizingResourceGroup) group;
 						if (!authGroup.isLimitingUsers() || authGroup.isUserAuthorized(user)) {
@@ -463,215 +605,133 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 			}
 
 			if (!groupFound) {
-				fireError(request, "No resources of type " + resourceType + " for requesting user available in this manager.");
-				return;
-			}
-
-			// check that user has access, and not yet exceeded max resource count
-			ResourceTypeAuthorizationConfig authStore;
-			try {
-				authStore = CloudManagerApp.getInstance().getResourceTypeAuthorizationStore()
-						.loadResourceTypeAuthorizations(resourceType);
-			}
-			catch (StoreException e) {
-				LOGGER.error("Could not load resource type authorization for resource type " + resourceType, e);
-				return;
+				rejectRequest(request, "No resources of type " + resourceType + " for requesting user available in this manager.");
+				return false;
 			}
 
+			// check that user has access
 			ResourceTypeAuthorization auth = authStore.getResourceTypeAuthorizationForUser(user);
 			if (auth == null || auth.getMaxResources() < 1) {
-				fireError(request, "User does not have access to resource type " + resourceType);
-				return;
-			}
-
-			Map<User, Integer> applicableUsers = getApplicableUsersMap(resourceType, authStore);
-			if (!applicableUsers.containsKey(user)) {
-				LOGGER.debug("Request " + request + " left in queue as user already uses max no of resources");
-				return;
-			}
-			else {
-				LOGGER.debug("User " + user.getName() + " uses " + applicableUsers.get(user) + " of max "
-						+ authStore.getResourceTypeAuthorizationForUser(user).getMaxResources() + " resources");
-			}
-
-			// check idle resources
-			Set<Resource> idles;
-			synchronized (this) {
-				idles = idleResources.get(resourceType);
-				if (idles == null || idles.isEmpty()) {
-					LOGGER.debug("No resources available for request " + request + ", leaving request in queue (queue size: "
-							+ queue.size() + ")");
-					return; // no resources available
-				}
-				// copy map to avoid concurrent modification
-				idles = new HashSet<Resource>(idles);
-			}
-			
-			List<? extends Resource> availables = module.getAvailableResources(request.getRequest(), idles);
-			if (availables.isEmpty()) {
-				LOGGER.debug("No resources available yet for incoming request, enqueueing request.");
-				return; // module says no resources available
+				rejectRequest(request, "User does not have access to resource type " + resourceType);
+				return false;
 			}
 
-			synchronized (this) {
-				// further reduce availables in case something changed
-				availables = new ArrayList<Resource>(availables);
-				availables.retainAll(idles);
-
-				if (availables.isEmpty()) {
-					// bad luck.
-					return;
-				}
-				
-				// now use resource logic to give other requests in queue a chance
-				checkRequestForResource(availables.get(0), module);
-			}
+			return true;
 		}
 
-		private boolean checkRequestForResource(Resource resource) {
-			ResourceModule module = CloudManagerApp.getInstance().getResourceModule(resource.getResourceType());
-			if (module == null) {
-				return false;
-			}
-
-			for (int groupId : groupManager.getAllResourceGroupIds()) {
-				ResourceGroup group = groupManager.getResourceGroup(groupId);
-				// could be gone in the meantime
-				if (group != null && group.getResourceType().equals(module.getResourceType())) {
-					LOGGER.debug("Checking if there is a waiting request for resource " + resource + "...");
-					return checkRequestForResource(resource, module);
-				}
+		private void rejectRequest(WaitingResourceRequest request, String errorMessage) {
+			// only report error if request has not been removed in the meantime
+			if (requestScheduler.removeRequest(request)) {
+				fireError(request, errorMessage);
 			}
-
-			return false;
 		}
 
-		private Map<User, Integer> getApplicableUsersMap(ResourceType resourceType,
-				ResourceTypeAuthorizationConfig authStore) {
-			// determine users not yet using their maximum resource count for this resource type
-			Map<User, Integer> applicableUsers = new HashMap<User, Integer>();
-
-			for (User user : authStore.getConfiguredUsers()) {
-				applicableUsers.put(user, Integer.valueOf(0));
+		private void assignIdleResources(ResourceModule module, ResourceTypeAuthorizationConfig authStore) {
+			if (requestScheduler.getQueueSize(resourceType) == 0) {
+				return;
 			}
 
-			synchronized (this) {
-				for (WaitingResourceRequest request : runningJobs) {
-					if (request.getRequest().getResourceType().equals(resourceType)) {
-						User u = request.getRequest().getRequestingUser();
-						Integer i = applicableUsers.get(u);
-						if (i == null) {
-							i = Integer.valueOf(0);
-						}
-						applicableUsers.put(u, Integer.valueOf(i.intValue() + 1));
-					}
+			Set<Resource> idles = getIdleResources(resourceType);
+			Iterator<Resource> iter = idles.iterator();
+			while (iter.hasNext()) {
+				if (iter.next().getState() != ResourceState.READY) {
+					iter.remove();
 				}
 			}
 
-			Iterator<Map.Entry<User, Integer>> mapIter = applicableUsers.entrySet().iterator();
-			while (mapIter.hasNext()) {
-				Map.Entry<User, Integer> entry = mapIter.next();
-				ResourceTypeAuthorization auth = authStore.getResourceTypeAuthorizationForUser(entry.getKey());
-				if (auth == null || auth.getMaxResources() <= entry.getValue().intValue()) {
-					mapIter.remove();
-				}
+			if (idles.isEmpty()) {
+				LOGGER.debug("No resources available, leaving requests in queue (queue size: "
+						+ requestScheduler.getQueueSize(resourceType) + ")");
+				return;
 			}
 
-			return applicableUsers;
-		}
+			LOGGER.debug("Checking if there are waiting requests for " + idles.size() + " idle resources of type "
+					+ resourceType + "...");
+			SchedulingContext context = new SchedulingContextImpl(resourceType, authStore, countResources());
 
-		private boolean checkRequestForResource(Resource resource, ResourceModule module) {
-			// find all requests which are applicable for this resource
-			List<WaitingResourceRequest> matchingRequests = new ArrayList<WaitingResourceRequest>();
-			synchronized (this) {
-				for (WaitingResourceRequest request : queue) {
-					if (request.getRequest().getResourceType().equals(resource.getResourceType())) {
-						matchingRequests.add(request);
-					}
-				}
-			}
+			// idle set only shrinks during this pass, so a request without matching resource can be skipped from now on
+			Set<WaitingResourceRequest> unmatched = new HashSet<WaitingResourceRequest>();
 
-			if (matchingRequests.isEmpty()) {
-				LOGGER.debug("No matching requests found for resource " + resource + " (queue size: " + queue.size() + ")");
-				return false;
-			}
+			boolean assigned = true;
+			while (assigned && !idles.isEmpty()) {
+				assigned = false;
+				// scheduler only returns requests of users not yet using their maximum resource count, best request first
+				Iterator<ManagedResourceQuery> scheduled = requestScheduler.getScheduledRequests(resourceType, context);
+				while (scheduled.hasNext() && !idles.isEmpty()) {
+					WaitingResourceRequest request = (WaitingResourceRequest) scheduled.next();
+					if (unmatched.contains(request)) {
+						continue;
+					}
 
-			ResourceTypeAuthorizationConfig authStore;
-			try {
-				authStore = CloudManagerApp.getInstance().getResourceTypeAuthorizationStore()
-						.loadResourceTypeAuthorizations(resource.getResourceType());
-			}
-			catch (StoreException e) {
-				LOGGER.error("Could not load resource type authorization for resource type " + resource.getResourceType(), e);
-				return true;
-			}
+					Resource resource = findAvailableResource(module, request, idles);
+					if (resource == null) {
+						unmatched.add(request);
+						continue;
+					}
 
-			Map<User, Integer> applicableUsers = getApplicableUsersMap(resource.getResourceType(), authStore);
+					// could have been removed from queue in the meantime
+					if (!requestScheduler.removeRequest(request)) {
+						continue;
+					}
 
-			Iterator<WaitingResourceRequest> iter = matchingRequests.iterator();
-			while (iter.hasNext()) {
-				WaitingResourceRequest request = iter.next();
-				// remove all requests not having an "applicable" user
-				if (!applicableUsers.containsKey(request.getRequest().getRequestingUser())) {
-					iter.remove();
-				}
-				else {
-					List<? extends Resource> ls = module.getAvailableResources(request.getRequest(),
-							Collections.singleton(resource));
-					if (ls.isEmpty()) {
-						iter.remove();
+					if (assignResource(request, resource)) {
+						idles.remove(resource);
+						// usage of the user has changed, so let the scheduler re-rank the remaining requests
+						assigned = true;
+						break;
 					}
 				}
 			}
+		}
 
-			if (!matchingRequests.isEmpty()) {
-				// count all resources for scoring
-				int resCnt = 0;
-				for (int groupId : groupManager.getAllResourceGroupIds()) {
-					ResourceGroup group = groupManager.getResourceGroup(groupId);
-					if (group != null) {
-						resCnt += group.getResourceCollection().getResourceCount();
+		private Resource findAvailableResource(ResourceModule module, WaitingResourceRequest request, Set<Resource> idles) {
+			for (Resource resource : module.getAvailableResources(request.getRequest(), idles)) {
+				if (idles.contains(resource)) {
+					if (resource.getState() == ResourceState.READY && isInIdle(resource)) {
+						return resource;
 					}
+					// gone in the meantime
+					idles.remove(resource);
 				}
+			}
+			return null;
+		}
 
-				// order them by scoring
-				WaitingRequestComparator comp = new WaitingRequestComparator(authStore, applicableUsers, resCnt);
-				Collections.sort(matchingRequests, comp);
-
-				// they may have changed in the meantime...
-				synchronized (this) {
-					matchingRequests.retainAll(queue);
-				}
+		private boolean assignResource(WaitingResourceRequest request, Resource resource) {
+			request.receivedResource = resource;
+			request.resourceReceivedTime = DateTime.now();
 
-				for (WaitingResourceRequest request : matchingRequests) {
-					synchronized (this) {
-						queue.remove(request);
-					}
-					request.receivedResource = resource;
-					request.resourceReceivedTime = DateTime.now();
-
-					if (fireResourceReceived(request, resource)) {
-						LOGGER.debug("Resource " + resource + " assigned successfully to request " + request
-								+ ", removing from idle cache");
-						removeFromIdle(resource);
-						synchronized (DefaultResourceManagerImpl.this) {
-							runningJobs.add(request);
-						}
-						return true;
-					}
-					else {
-						LOGGER.debug("Request " + request + " did not want to consume resource " + resource
-								+ ", releasing resource.");
-						request.resourceReleasedTime = DateTime.now();
-						fireResourceReleased(request, resource);
-					}
+			if (fireResourceReceived(request, resource)) {
+				LOGGER.debug("Resource " + resource + " assigned successfully to request " + request
+						+ ", removing from idle cache");
+				removeFromIdle(resource);
+				if (runningJobs.putIfAbsent(resource, request) == null) {
+					User user = request.getRequest().getRequestingUser();
+					usageCounter.increment(resourceType, user);
+					requestScheduler.userUsageChanged(resourceType, user);
+					request.resourceReceivedNanos = System.nanoTime();
+					requestMetrics.record(Metric.WAIT_TIME, resourceType.getName(), user.getName(),
+							TimeUnit.NANOSECONDS.toMicros(request.resourceReceivedNanos - request.enqueueStartNanos));
 				}
-
 				return true;
 			}
-			LOGGER.debug("No matching waiting requests found for resource " + resource);
+
+			LOGGER.debug("Request " + request + " did not want to consume resource " + resource + ", releasing resource.");
+			request.resourceReleasedTime = DateTime.now();
+			fireResourceReleased(request, resource);
 			return false;
 		}
+
+		private int countResources() {
+			int resCnt = 0;
+			for (int groupId : groupManager.getAllResourceGroupIds()) {
+				ResourceGroup group = groupManager.getResourceGroup(groupId);
+				if (group != null) {
+					resCnt += group.getResourceCollection().getResourceCount();
+				}
+			}
+			return resCnt;
+		}
 	}
 
 	private static class WaitingResourceRequest implements ManagedResourceQuery {
@@ -685,6 +745,11 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 		private DateTime resourceReleasedTime;
 		
 		private Resource receivedResource;
+
+		// for metrics; DateTime fields only have millisecond precision
+		private final long enqueueStartNanos;
+
+		private volatile long resourceReceivedNanos;
 		
 		public WaitingResourceRequest(ResourceRequest request) {
 			if (request == null) {
@@ -692,6 +757,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 			}
 			this.request = request;
 			enqueueStartTime = new DateTime();
+			enqueueStartNanos = System.nanoTime();
 		}
 
 		@Override
@@ -721,9 +787,7 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 
 		@Override
 		public int hashCode() {
-			if (receivedResource != null) {
-				return receivedResource.hashCode();
-			}
+			// must not depend on mutable state, as objects are used as keys while being assigned
 			return request.hashCode();
 		}
 		
@@ -750,51 +814,34 @@ public class DefaultResourceManagerImpl implements ResourceManager, ResourceColl
 
 	}
 
-	private class WaitingRequestComparator implements Comparator<WaitingResourceRequest> {
+	private class SchedulingContextImpl implements SchedulingContext {
+
+		private ResourceType resourceType;
 
 		private ResourceTypeAuthorizationConfig authConfig;
 
 		private int totalResourceCount;
 
-		private Map<User, Integer> userJobCount;
-
-		private DateTime now;
-
-		public WaitingRequestComparator(ResourceTypeAuthorizationConfig authConfig, Map<User, Integer> userJobCount,
+		public SchedulingContextImpl(ResourceType resourceType, ResourceTypeAuthorizationConfig authConfig,
 				int totalResourceCount) {
+			this.resourceType = resourceType;
 			this.authConfig = authConfig;
-			this.userJobCount = userJobCount;
 			this.totalResourceCount = totalResourceCount;
-			this.now = DateTime.now();
 		}
 
-		private static final int NORMALIZE_DIFF = 20;
+		@Override
+		public ResourceTypeAuthorizationConfig getAuthorizationConfig() {
+			return authConfig;
+		}
+
+		@Override
+		public int getUsedResourceCount(User user) {
+			return usageCounter.get(resourceType, user);
+		}
 
 		@Override
-		public int compare(WaitingResourceRequest req1, WaitingResourceRequest req2) {
-			User u1 = req1.getRequest().getRequestingUser();
-			User u2 = req2.getRequest().getRequestingUser();
-			
-			ResourceTypeAuthorization auth1 = authConfig.getResourceTypeAuthorizationForUser(u1);
-			ResourceTypeAuthorization auth2 = authConfig.getResourceTypeAuthorizationForUser(u2);
-			
-			return calculateRequestScore(req1, auth1) - calculateRequestScore(req2, auth2);
-		}
-
-		private int calculateRequestScore(WaitingResourceRequest request, ResourceTypeAuthorization auth) {
-			int normalizedNiceLevel = auth.getNiceLevel() - NORMALIZE_DIFF;
-			double userMax = Math.min(auth.getMaxResources(), totalResourceCount);
-			if (userMax == 0) {
-				return 0;
-			}
-			double userRunCount = userJobCount.get(request.getRequest().getRequestingUser()).intValue();
-			normalizedNiceLevel -= (int) ((userRunCount / userMax) * normalizedNiceLevel);
-
-			long millisWaiting = new Duration(request.getEnqueueStartTime(), now).getMillis();
-			if (millisWaiting == 0) {
-				millisWaiting = 1;
-			}
-			return (int) (millisWaiting * normalizedNiceLevel);
+		public int getTotalResourceCount() {
+			return totalResourceCount;
 		}
 
 	}
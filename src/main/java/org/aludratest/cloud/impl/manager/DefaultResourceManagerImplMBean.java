@@ -15,14 +15,30 @@
  */
 package org.aludratest.cloud.impl.manager;
 
+import java.util.Map;
+
 
 @SuppressWarnings("javadoc")
 public interface DefaultResourceManagerImplMBean {
 
 	public int getTotalQueueSize();
 
+	public Map<String, Integer> getQueueSizePerResourceType();
+
 	public int getIdleResourceCount();
 
+	public int getInUseResourceCount();
+
 	public int getRunningQueriesCount();
 
+	public Map<String, Integer> getRunningQueriesPerUser();
+
+	public Map<String, Map<String, Integer>> getRunningQueriesPerResourceTypeAndUser();
+
+	public int getPendingEventCount();
+
+	public double getAverageEventLatencyMillis();
+
+	public long getMaxEventLatencyMillis();
+
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.manager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free event queue for multiple producers and a single consumer. Producers never block; the consumer thread parks while the
+ * queue is empty and is unparked by the next producer. <br>
+ * The queue also records how long events have been waiting in the queue. These statistics are only written by the consumer
+ * thread, but can be read by any thread.
+ *
+ * @param <E>
+ *            Type of the queued events.
+ */
+class EventQueue<E> {
+
+	private final int capacity;
+
+	private final AtomicReference<Node<E>> tail;
+
+	// only accessed by consumer thread
+	private Node<E> head;
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private volatile Thread consumer;
+
+	private volatile boolean consumerWaiting;
+
+	private volatile long processedCount;
+
+	private volatile long totalLatencyNanos;
+
+	private volatile long maxLatencyNanos;
+
+	/**
+	 * Creates a new event queue.
+	 *
+	 * @param capacity
+	 *            Maximum number of events accepted by {@link #offer(Object)}.
+	 */
+	public EventQueue(int capacity) {
+		this.capacity = capacity;
+		head = new Node<E>(null);
+		tail = new AtomicReference<Node<E>>(head);
+	}
+
+	/**
+	 * Adds the given event to the queue, if the queue has not yet reached its capacity.
+	 *
+	 * @param event
+	 *            Event to add.
+	 * @return <code>true</code> if the event has been added, <code>false</code> if the queue is full.
+	 */
+	public boolean offer(E event) {
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			return false;
+		}
+		enqueue(event);
+		return true;
+	}
+
+	/**
+	 * Adds the given event to the queue, regardless of its capacity. Use this only for events which must not be lost, and whose
+	 * number is limited by other means.
+	 *
+	 * @param event
+	 *            Event to add.
+	 */
+	public void add(E event) {
+		size.incrementAndGet();
+		enqueue(event);
+	}
+
+	/**
+	 * Removes the next event from the queue, waiting for the given time if the queue is empty. Must only be called by the
+	 * consumer thread.
+	 *
+	 * @param timeout
+	 *            Maximum time to wait for an event.
+	 * @param unit
+	 *            Time unit of the <code>timeout</code> parameter.
+	 * @return The next event, or <code>null</code> if no event arrived within the given time.
+	 * @throws InterruptedException
+	 *             If the consumer thread has been interrupted.
+	 */
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		E event = poll();
+		if (event != null) {
+			return event;
+		}
+
+		consumer = Thread.currentThread();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			while (true) {
+				consumerWaiting = true;
+				// re-check after publishing the waiting flag, so no wakeup gets lost
+				event = poll();
+				if (event != null) {
+					return event;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return null;
+				}
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+		finally {
+			consumerWaiting = false;
+		}
+	}
+
+	/**
+	 * Returns the number of events currently in the queue.
+	 *
+	 * @return The number of events currently in the queue.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the number of events removed from this queue so far.
+	 *
+	 * @return The number of events removed from this queue so far.
+	 */
+	public long getProcessedCount() {
+		return processedCount;
+	}
+
+	/**
+	 * Returns the total time all events removed so far have been waiting in this queue.
+	 *
+	 * @return The total time all events removed so far have been waiting in this queue, in nanoseconds.
+	 */
+	public long getTotalLatencyNanos() {
+		return totalLatencyNanos;
+	}
+
+	/**
+	 * Returns the maximum time an event has been waiting in this queue.
+	 *
+	 * @return The maximum time an event has been waiting in this queue, in nanoseconds.
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos;
+	}
+
+	private void enqueue(E event) {
+		Node<E> node = new Node<E>(event);
+		Node<E> previous = tail.getAndSet(node);
+		// volatile write, which must not be reordered with the read of the waiting flag
+		previous.next = node;
+
+		if (consumerWaiting) {
+			Thread t = consumer;
+			if (t != null) {
+				LockSupport.unpark(t);
+			}
+		}
+	}
+
+	/**
+	 * Removes the next event from the queue, without waiting. Must only be called by the consumer thread.
+	 *
+	 * @return The next event, or <code>null</code> if the queue is empty.
+	 */
+	public E poll() {
+		Node<E> next = head.next;
+		if (next == null) {
+			return null;
+		}
+		head = next;
+		E event = next.event;
+		next.event = null;
+		size.decrementAndGet();
+
+		long latency = System.nanoTime() - next.enqueueNanos;
+		processedCount++;
+		totalLatencyNanos += latency;
+		if (latency > maxLatencyNanos) {
+			maxLatencyNanos = latency;
+		}
+		return event;
+	}
+
+	private static class Node<E> {
+
+		private E event;
+
+		private final long enqueueNanos;
+
+		private volatile Node<E> next;
+
+		public Node(E event) {
+			this.event = event;
+			this.enqueueNanos = System.nanoTime();
+		}
+
+	}
+
+}
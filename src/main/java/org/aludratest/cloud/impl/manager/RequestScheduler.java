@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.manager;
+
+import java.util.Iterator;
+
+import org.aludratest.cloud.manager.ManagedResourceQuery;
+import org.aludratest.cloud.resource.ResourceType;
+import org.aludratest.cloud.user.User;
+
+/**
+ * Scheduling engine of the default resource manager. A scheduler holds all waiting requests and decides in which order they are
+ * offered a free resource. <br>
+ * Implementations are looked up as Plexus components, so a different scheduling strategy can be plugged in by registering a
+ * component for this role. All methods must be thread-safe, as requests are added and removed by other threads than the one
+ * retrieving the scheduled requests.
+ *
+ */
+public interface RequestScheduler {
+
+	/**
+	 * Plexus role for this component.
+	 */
+	public static final String ROLE = RequestScheduler.class.getName();
+
+	/**
+	 * Adds the given request to the waiting requests.
+	 *
+	 * @param request
+	 *            Request to add.
+	 * @return <code>true</code> if the request has been added, <code>false</code> if it already was waiting.
+	 */
+	public boolean addRequest(ManagedResourceQuery request);
+
+	/**
+	 * Removes the given request from the waiting requests.
+	 *
+	 * @param request
+	 *            Request to remove.
+	 * @return <code>true</code> if the request has been removed, <code>false</code> if it was not waiting (anymore).
+	 */
+	public boolean removeRequest(ManagedResourceQuery request);
+
+	/**
+	 * Checks if the given request is waiting.
+	 *
+	 * @param request
+	 *            Request to check.
+	 * @return <code>true</code> if the request is waiting, <code>false</code> otherwise.
+	 */
+	public boolean containsRequest(ManagedResourceQuery request);
+
+	/**
+	 * Notifies the scheduler that the number of resources of the given type used by the given user has changed. The scheduler
+	 * should re-rank the requests of this user before the next selection.
+	 *
+	 * @param resourceType
+	 *            Resource type.
+	 * @param user
+	 *            User whose resource usage has changed.
+	 */
+	public void userUsageChanged(ResourceType resourceType, User user);
+
+	/**
+	 * Returns the requests waiting for the given resource type, in the order in which they should be offered a free resource.
+	 * The returned iterator is evaluated lazily, so callers only pay for the requests they actually inspect. It does not support
+	 * removal; use {@link #removeRequest(ManagedResourceQuery)} instead. Requests which have been removed concurrently may still
+	 * be returned, so callers must check the result of <code>removeRequest</code> before assigning a resource. <br>
+	 * Requests of users which already use their maximum number of resources of this type are not returned.
+	 *
+	 * @param resourceType
+	 *            Resource type to return the waiting requests for.
+	 * @param context
+	 *            Context providing the current authorization and usage information.
+	 * @return An iterator over the scheduled requests, possibly empty, but never <code>null</code>.
+	 */
+	public Iterator<ManagedResourceQuery> getScheduledRequests(ResourceType resourceType, SchedulingContext context);
+
+	/**
+	 * Returns the number of requests waiting for the given resource type.
+	 *
+	 * @param resourceType
+	 *            Resource type to return the number of waiting requests for.
+	 * @return The number of requests waiting for the given resource type.
+	 */
+	public int getQueueSize(ResourceType resourceType);
+
+	/**
+	 * Returns the total number of waiting requests, for all resource types.
+	 *
+	 * @return The total number of waiting requests.
+	 */
+	public int getQueueSize();
+
+	/**
+	 * Removes all waiting requests.
+	 */
+	public void clear();
+
+}
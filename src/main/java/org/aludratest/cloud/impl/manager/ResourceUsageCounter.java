@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.manager;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aludratest.cloud.resource.ResourceType;
+import org.aludratest.cloud.user.User;
+
+/**
+ * Live table of the number of resources each user currently uses, per resource type. The table is updated incrementally when a
+ * job starts or ends, so quota checks do not have to count the running jobs again. <br>
+ * All methods of this class are thread-safe and do not block.
+ */
+class ResourceUsageCounter {
+
+	private ConcurrentMap<ResourceType, ConcurrentMap<User, AtomicInteger>> counters = new ConcurrentHashMap<ResourceType, ConcurrentMap<User, AtomicInteger>>();
+
+	/**
+	 * Increments the number of resources of the given type used by the given user.
+	 * 
+	 * @param resourceType
+	 *            Resource type.
+	 * @param user
+	 *            User.
+	 * @return The new number of resources of the given type used by the user.
+	 */
+	public int increment(ResourceType resourceType, User user) {
+		return getCounter(resourceType, user).incrementAndGet();
+	}
+
+	/**
+	 * Decrements the number of resources of the given type used by the given user.
+	 * 
+	 * @param resourceType
+	 *            Resource type.
+	 * @param user
+	 *            User.
+	 * @return The new number of resources of the given type used by the user.
+	 */
+	public int decrement(ResourceType resourceType, User user) {
+		return getCounter(resourceType, user).decrementAndGet();
+	}
+
+	/**
+	 * Returns the number of resources of the given type currently used by the given user.
+	 * 
+	 * @param resourceType
+	 *            Resource type.
+	 * @param user
+	 *            User.
+	 * @return The number of resources of the given type currently used by the user.
+	 */
+	public int get(ResourceType resourceType, User user) {
+		Map<User, AtomicInteger> userCounters = counters.get(resourceType);
+		if (userCounters == null) {
+			return 0;
+		}
+		AtomicInteger counter = userCounters.get(user);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * Returns a snapshot of all non-zero counters. The keys of the returned map have the form
+	 * <code>&lt;resourceType&gt;/&lt;userName&gt;</code>. Counters of users with the same name are summed up.
+	 * 
+	 * @return A snapshot of all non-zero counters, sorted by key.
+	 */
+	public Map<String, Integer> toMap() {
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+		for (Map.Entry<String, Map<String, Integer>> typeEntry : toResourceTypeMap().entrySet()) {
+			for (Map.Entry<String, Integer> userEntry : typeEntry.getValue().entrySet()) {
+				result.put(typeEntry.getKey() + "/" + userEntry.getKey(), userEntry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a snapshot of all non-zero counters, keyed by resource type name and user name. Counters of users with the same
+	 * name are summed up.
+	 * 
+	 * @return A snapshot of all non-zero counters, sorted by resource type name and user name.
+	 */
+	public Map<String, Map<String, Integer>> toResourceTypeMap() {
+		Map<String, Map<String, Integer>> result = new TreeMap<String, Map<String, Integer>>();
+		for (Map.Entry<ResourceType, ConcurrentMap<User, AtomicInteger>> typeEntry : counters.entrySet()) {
+			String typeName = typeEntry.getKey().getName();
+			for (Map.Entry<User, AtomicInteger> userEntry : typeEntry.getValue().entrySet()) {
+				int value = userEntry.getValue().get();
+				if (value == 0) {
+					continue;
+				}
+				Map<String, Integer> userCounts = result.get(typeName);
+				if (userCounts == null) {
+					userCounts = new TreeMap<String, Integer>();
+					result.put(typeName, userCounts);
+				}
+				String userName = userEntry.getKey().getName();
+				Integer previous = userCounts.get(userName);
+				userCounts.put(userName, Integer.valueOf(previous == null ? value : previous.intValue() + value));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Resets all counters.
+	 */
+	public void clear() {
+		counters.clear();
+	}
+
+	private AtomicInteger getCounter(ResourceType resourceType, User user) {
+		ConcurrentMap<User, AtomicInteger> userCounters = counters.get(resourceType);
+		if (userCounters == null) {
+			userCounters = new ConcurrentHashMap<User, AtomicInteger>();
+			ConcurrentMap<User, AtomicInteger> existing = counters.putIfAbsent(resourceType, userCounters);
+			if (existing != null) {
+				userCounters = existing;
+			}
+		}
+
+		AtomicInteger counter = userCounters.get(user);
+		if (counter == null) {
+			counter = new AtomicInteger();
+			AtomicInteger existing = userCounters.putIfAbsent(user, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		return counter;
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.manager;
+
+import org.aludratest.cloud.resource.user.ResourceTypeAuthorizationConfig;
+import org.aludratest.cloud.user.User;
+
+/**
+ * Information provided by the resource manager to a {@link RequestScheduler} when scheduling the waiting requests of one
+ * resource type.
+ *
+ */
+public interface SchedulingContext {
+
+	/**
+	 * Returns the current authorization configuration for the resource type being scheduled.
+	 *
+	 * @return The current authorization configuration for the resource type being scheduled.
+	 */
+	public ResourceTypeAuthorizationConfig getAuthorizationConfig();
+
+	/**
+	 * Returns the number of resources of the scheduled type currently used by the given user.
+	 *
+	 * @param user
+	 *            User.
+	 * @return The number of resources of the scheduled type currently used by the given user.
+	 */
+	public int getUsedResourceCount(User user);
+
+	/**
+	 * Returns the total number of resources currently managed, for all resource types.
+	 *
+	 * @return The total number of resources currently managed.
+	 */
+	public int getTotalResourceCount();
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.metrics;
+
+/**
+ * Immutable view on the values of a histogram within a time window. All values are in microseconds.
+ */
+public final class HistogramSnapshot {
+
+	private final long[] bucketCounts = new long[LatencyHistogram.BUCKET_COUNT];
+
+	private long count;
+
+	private long sum;
+
+	private long max;
+
+	HistogramSnapshot() {
+	}
+
+	long[] getBucketCounts() {
+		return bucketCounts;
+	}
+
+	void add(long count, long sum, long max) {
+		this.count += count;
+		this.sum += sum;
+		this.max = Math.max(this.max, max);
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 * 
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the sum of all recorded values.
+	 * 
+	 * @return The sum of all recorded values.
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 * 
+	 * @return The largest recorded value, or 0 if no value has been recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the arithmetic mean of all recorded values.
+	 * 
+	 * @return The arithmetic mean of all recorded values, or 0 if no value has been recorded.
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns the given percentile of the recorded values. The result is the upper bound of the histogram bucket containing the
+	 * percentile, but never more than the largest recorded value.
+	 * 
+	 * @param percentile
+	 *            Percentile to return, between 0 and 100.
+	 * 
+	 * @return The given percentile of the recorded values, or 0 if no value has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		// bucket counts and total count are read at slightly different times, so use the bucket total
+		long total = 0;
+		for (long c : bucketCounts) {
+			total += c;
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < bucketCounts.length; i++) {
+			seen += bucketCounts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.bucketUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+}
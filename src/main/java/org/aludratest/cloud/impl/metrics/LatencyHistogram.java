@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, e.g. durations in microseconds. Values are counted in log-linear buckets: by
+ * default, each power of two is divided into {@value #SUB_BUCKET_COUNT} buckets of equal width, so the relative error of any
+ * reported value is less than 1 / {@value #SUB_BUCKET_COUNT}. Histograms with a lower precision use fewer buckets per power of
+ * two, and therefore less memory; their buckets are mapped to the default buckets when added to a snapshot. Values larger than
+ * 2<sup>{@value #MAX_MAGNITUDE}</sup> are counted in the highest bucket. <br>
+ * Recording a value is a few atomic operations and does not allocate any objects.
+ */
+final class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 5;
+
+	static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	static final int MAX_MAGNITUDE = 40;
+
+	static final int BUCKET_COUNT = bucketCount(SUB_BUCKET_BITS);
+
+	private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+	private final int subBucketBits;
+
+	private final AtomicLongArray counts;
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Creates a histogram with the default precision.
+	 */
+	LatencyHistogram() {
+		this(SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * Creates a histogram dividing each power of two into 2<sup>subBucketBits</sup> buckets.
+	 * 
+	 * @param subBucketBits
+	 *            Precision of the histogram, between 1 and the default precision.
+	 */
+	LatencyHistogram(int subBucketBits) {
+		if (subBucketBits < 1 || subBucketBits > SUB_BUCKET_BITS) {
+			throw new IllegalArgumentException("subBucketBits must be between 1 and " + SUB_BUCKET_BITS);
+		}
+		this.subBucketBits = subBucketBits;
+		counts = new AtomicLongArray(bucketCount(subBucketBits));
+	}
+
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		counts.incrementAndGet(bucketIndex(value, subBucketBits));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Resets all counters. Values recorded concurrently to a reset may be partially lost.
+	 */
+	void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Adds the contents of this histogram to the given snapshot.
+	 * 
+	 * @param snapshot
+	 *            Snapshot to add this histogram to.
+	 */
+	void addTo(HistogramSnapshot snapshot) {
+		long[] target = snapshot.getBucketCounts();
+		for (int i = 0; i < counts.length(); i++) {
+			long c = counts.get(i);
+			if (c != 0) {
+				// a bucket of a lower precision is counted in the default bucket containing its upper bound
+				target[subBucketBits == SUB_BUCKET_BITS ? i : bucketIndex(bucketUpperBound(i, subBucketBits))] += c;
+			}
+		}
+		snapshot.add(count.get(), sum.get(), max.get());
+	}
+
+	private static int bucketCount(int subBucketBits) {
+		return (MAX_MAGNITUDE - subBucketBits + 2) << subBucketBits;
+	}
+
+	static int bucketIndex(long value) {
+		return bucketIndex(value, SUB_BUCKET_BITS);
+	}
+
+	private static int bucketIndex(long value, int subBucketBits) {
+		int subBucketCount = 1 << subBucketBits;
+		if (value < subBucketCount) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - subBucketBits;
+		return (shift + 1) * subBucketCount + (int) ((value >>> shift) - subBucketCount);
+	}
+
+	/**
+	 * Returns the highest value which is counted in the bucket with the given index.
+	 * 
+	 * @param index
+	 *            Bucket index.
+	 * 
+	 * @return The highest value which is counted in the bucket.
+	 */
+	static long bucketUpperBound(int index) {
+		return bucketUpperBound(index, SUB_BUCKET_BITS);
+	}
+
+	private static long bucketUpperBound(int index, int subBucketBits) {
+		int subBucketCount = 1 << subBucketBits;
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = index / subBucketCount - 1;
+		long lowerBound = ((long) (index % subBucketCount) + subBucketCount) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.plexus.component.annotations.Component;
+
+/**
+ * Real-time metrics of resource requests, kept in memory. For each {@link Metric}, a histogram over a sliding time window is
+ * kept in total and per resource type, and, if {@link Metric#isTrackedPerUser()}, per user. Recording a value is lock-free and
+ * only allocates when a resource type or user is seen for the first time. <br>
+ * The window length can be configured using the system property <code>acm.metrics.windowSeconds</code> (default 300). The
+ * window of the total histograms moves on in steps of one tenth of its length. To bound memory usage, the histograms per
+ * resource type and per user have a lower precision, move on in steps of one fifth of the window length, and are discarded
+ * when no value has been recorded for them within a whole window.
+ */
+@Component(role = RequestMetrics.class)
+public class RequestMetrics implements RequestMetricsMBean {
+
+	private static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(Math.max(1,
+			Integer.getInteger("acm.metrics.windowSeconds", 300).intValue()));
+
+	private static final int WINDOW_SLOTS = 10;
+
+	private static final int KEY_WINDOW_SLOTS = 5;
+
+	// relative error of less than 1/8 is sufficient for comparing users and resource types
+	private static final int KEY_SUB_BUCKET_BITS = 3;
+
+	/**
+	 * The durations measured for resource requests.
+	 */
+	public static enum Metric {
+		/** Time from enqueueing a request until a resource has been assigned to it. */
+		WAIT_TIME(true),
+		/** Time from assigning a resource to a request until the resource has been released. */
+		WORK_TIME(false),
+		/** Duration of one HTTP long-poll round trip of a client waiting for its request. */
+		POLL_TIME(false);
+
+		private final boolean trackedPerUser;
+
+		private Metric(boolean trackedPerUser) {
+			this.trackedPerUser = trackedPerUser;
+		}
+
+		/**
+		 * Returns <code>true</code> if histograms of this metric are kept per user.
+		 * 
+		 * @return <code>true</code> if histograms of this metric are kept per user, <code>false</code> otherwise.
+		 */
+		public boolean isTrackedPerUser() {
+			return trackedPerUser;
+		}
+	}
+
+	private final MetricSeries[] series;
+
+	private final AtomicLong nextEvictionMillis = new AtomicLong();
+
+	/**
+	 * Creates a new, empty metrics object.
+	 */
+	public RequestMetrics() {
+		series = new MetricSeries[Metric.values().length];
+		for (int i = 0; i < series.length; i++) {
+			series[i] = new MetricSeries();
+		}
+	}
+
+	/**
+	 * Records a duration for the given metric.
+	 * 
+	 * @param metric
+	 *            Metric to record the duration for.
+	 * @param resourceType
+	 *            Name of the resource type of the request, or <code>null</code> if unknown.
+	 * @param userName
+	 *            Name of the requesting user, or <code>null</code> if unknown.
+	 * @param durationMicros
+	 *            Measured duration, in microseconds.
+	 */
+	public void record(Metric metric, String resourceType, String userName, long durationMicros) {
+		long now = System.currentTimeMillis();
+		MetricSeries s = series[metric.ordinal()];
+		s.total.record(durationMicros, now);
+		if (resourceType != null) {
+			getHistogram(s.perResourceType, resourceType).record(durationMicros, now);
+		}
+		if (userName != null && metric.isTrackedPerUser()) {
+			getHistogram(s.perUser, userName).record(durationMicros, now);
+		}
+
+		long nextEviction = nextEvictionMillis.get();
+		if (now >= nextEviction && nextEvictionMillis.compareAndSet(nextEviction, now + WINDOW_MILLIS / KEY_WINDOW_SLOTS)) {
+			evictIdleHistograms(now);
+		}
+	}
+
+	private void evictIdleHistograms(long now) {
+		// a value recorded concurrently to the eviction of its histogram may be lost
+		for (MetricSeries s : series) {
+			evictIdleHistograms(s.perResourceType, now);
+			evictIdleHistograms(s.perUser, now);
+		}
+	}
+
+	private static void evictIdleHistograms(ConcurrentMap<String, SlidingWindowHistogram> map, long now) {
+		for (Map.Entry<String, SlidingWindowHistogram> entry : map.entrySet()) {
+			if (entry.getValue().isIdle(now)) {
+				map.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static SlidingWindowHistogram getHistogram(ConcurrentMap<String, SlidingWindowHistogram> map, String key) {
+		SlidingWindowHistogram histogram = map.get(key);
+		if (histogram == null) {
+			histogram = new SlidingWindowHistogram(WINDOW_MILLIS, KEY_WINDOW_SLOTS, KEY_SUB_BUCKET_BITS);
+			SlidingWindowHistogram existing = map.putIfAbsent(key, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the length of the sliding window of all histograms.
+	 * 
+	 * @return The length of the sliding window of all histograms, in milliseconds.
+	 */
+	public long getWindowMillis() {
+		return WINDOW_MILLIS;
+	}
+
+	/**
+	 * Returns a snapshot of all values of the given metric within the current window.
+	 * 
+	 * @param metric
+	 *            Metric to return the snapshot for.
+	 * 
+	 * @return A snapshot of all values of the given metric within the current window.
+	 */
+	public HistogramSnapshot getSnapshot(Metric metric) {
+		return series[metric.ordinal()].total.snapshot(System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns snapshots of the values of the given metric within the current window, per resource type.
+	 * 
+	 * @param metric
+	 *            Metric to return the snapshots for.
+	 * 
+	 * @return Snapshots of the values of the given metric, per resource type name, sorted by resource type name.
+	 */
+	public Map<String, HistogramSnapshot> getSnapshotsPerResourceType(Metric metric) {
+		return snapshots(series[metric.ordinal()].perResourceType);
+	}
+
+	/**
+	 * Returns snapshots of the values of the given metric within the current window, per user.
+	 * 
+	 * @param metric
+	 *            Metric to return the snapshots for.
+	 * 
+	 * @return Snapshots of the values of the given metric, per user name, sorted by user name. Empty if the metric is not
+	 *         {@link Metric#isTrackedPerUser() tracked per user}.
+	 */
+	public Map<String, HistogramSnapshot> getSnapshotsPerUser(Metric metric) {
+		return snapshots(series[metric.ordinal()].perUser);
+	}
+
+	private static Map<String, HistogramSnapshot> snapshots(ConcurrentMap<String, SlidingWindowHistogram> map) {
+		long now = System.currentTimeMillis();
+		Map<String, HistogramSnapshot> result = new TreeMap<String, HistogramSnapshot>();
+		for (Map.Entry<String, SlidingWindowHistogram> entry : map.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().snapshot(now));
+		}
+		return result;
+	}
+
+	/* MBean methods */
+
+	@Override
+	public long getWindowSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(WINDOW_MILLIS);
+	}
+
+	@Override
+	public long getWaitTimeCount() {
+		return getSnapshot(Metric.WAIT_TIME).getCount();
+	}
+
+	@Override
+	public double getWaitTimeMeanMillis() {
+		return getSnapshot(Metric.WAIT_TIME).getMean() / 1000.0;
+	}
+
+	@Override
+	public double getWaitTimeP95Millis() {
+		return toMillis(getSnapshot(Metric.WAIT_TIME).getPercentile(95));
+	}
+
+	@Override
+	public double getWaitTimeMaxMillis() {
+		return toMillis(getSnapshot(Metric.WAIT_TIME).getMax());
+	}
+
+	@Override
+	public Map<String, Double> getWaitTimeP95MillisPerResourceType() {
+		return toP95Millis(getSnapshotsPerResourceType(Metric.WAIT_TIME));
+	}
+
+	@Override
+	public Map<String, Double> getWaitTimeP95MillisPerUser() {
+		return toP95Millis(getSnapshotsPerUser(Metric.WAIT_TIME));
+	}
+
+	@Override
+	public long getWorkTimeCount() {
+		return getSnapshot(Metric.WORK_TIME).getCount();
+	}
+
+	@Override
+	public double getWorkTimeMeanMillis() {
+		return getSnapshot(Metric.WORK_TIME).getMean() / 1000.0;
+	}
+
+	@Override
+	public double getWorkTimeP95Millis() {
+		return toMillis(getSnapshot(Metric.WORK_TIME).getPercentile(95));
+	}
+
+	@Override
+	public Map<String, Double> getWorkTimeP95MillisPerResourceType() {
+		return toP95Millis(getSnapshotsPerResourceType(Metric.WORK_TIME));
+	}
+
+	@Override
+	public long getPollTimeCount() {
+		return getSnapshot(Metric.POLL_TIME).getCount();
+	}
+
+	@Override
+	public double getPollTimeMeanMillis() {
+		return getSnapshot(Metric.POLL_TIME).getMean() / 1000.0;
+	}
+
+	@Override
+	public double getPollTimeP95Millis() {
+		return toMillis(getSnapshot(Metric.POLL_TIME).getPercentile(95));
+	}
+
+	private static double toMillis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static Map<String, Double> toP95Millis(Map<String, HistogramSnapshot> snapshots) {
+		Map<String, Double> result = new TreeMap<String, Double>();
+		for (Map.Entry<String, HistogramSnapshot> entry : snapshots.entrySet()) {
+			result.put(entry.getKey(), Double.valueOf(toMillis(entry.getValue().getPercentile(95))));
+		}
+		return result;
+	}
+
+	private static class MetricSeries {
+
+		private final SlidingWindowHistogram total = new SlidingWindowHistogram(WINDOW_MILLIS, WINDOW_SLOTS);
+
+		private final ConcurrentMap<String, SlidingWindowHistogram> perResourceType = new ConcurrentHashMap<String, SlidingWindowHistogram>();
+
+		private final ConcurrentMap<String, SlidingWindowHistogram> perUser = new ConcurrentHashMap<String, SlidingWindowHistogram>();
+
+	}
+
+}
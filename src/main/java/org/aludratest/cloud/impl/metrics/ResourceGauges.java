@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.aludratest.cloud.resource.Resource;
+import org.aludratest.cloud.resource.ResourceCollectionListener;
+import org.aludratest.cloud.resource.ResourceListener;
+import org.aludratest.cloud.resource.ResourceState;
+import org.aludratest.cloud.resource.ResourceStateHolder;
+import org.aludratest.cloud.resourcegroup.ResourceGroup;
+import org.codehaus.plexus.component.annotations.Component;
+
+/**
+ * Live count of resources per resource group and resource state. The counters are updated incrementally on every resource state
+ * change, so reading them never has to iterate over resource collections or to acquire any lock. <br>
+ * A resource group has to be registered using {@link #groupAdded(ResourceGroup)} to be counted; the counters then listen for
+ * changes of the group's resource collection and of the states of its resources themselves.
+ */
+@Component(role = ResourceGauges.class)
+public class ResourceGauges {
+
+	private static final ResourceState[] STATES = ResourceState.values();
+
+	private final ConcurrentMap<ResourceGroup, GroupGauge> groups = new ConcurrentHashMap<ResourceGroup, GroupGauge>();
+
+	/**
+	 * Starts counting the resources of the given resource group. Does nothing if the group is already being counted.
+	 * 
+	 * @param group
+	 *            Resource group to count the resources of.
+	 */
+	public void groupAdded(ResourceGroup group) {
+		GroupGauge gauge = new GroupGauge();
+		if (groups.putIfAbsent(group, gauge) == null) {
+			group.getResourceCollection().addResourceCollectionListener(gauge);
+			for (ResourceStateHolder rsh : group.getResourceCollection()) {
+				gauge.resourceAdded((Resource) rsh);
+			}
+		}
+	}
+
+	/**
+	 * Stops counting the resources of the given resource group.
+	 * 
+	 * @param group
+	 *            Resource group to stop counting the resources of.
+	 */
+	public void groupRemoved(ResourceGroup group) {
+		GroupGauge gauge = groups.remove(group);
+		if (gauge != null) {
+			group.getResourceCollection().removeResourceCollectionListener(gauge);
+			for (Resource resource : gauge.resourceStates.keySet()) {
+				gauge.resourceRemoved(resource);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of resources of the given group which currently are in the given state.
+	 * 
+	 * @param group
+	 *            Resource group.
+	 * @param state
+	 *            Resource state.
+	 * 
+	 * @return The number of resources of the given group which currently are in the given state, or 0 if the group is not
+	 *         counted.
+	 */
+	public int getCount(ResourceGroup group, ResourceState state) {
+		GroupGauge gauge = groups.get(group);
+		return gauge == null ? 0 : gauge.counts.get(state.ordinal());
+	}
+
+	/**
+	 * Returns the number of resources of all counted groups which currently are in the given state.
+	 * 
+	 * @param state
+	 *            Resource state.
+	 * 
+	 * @return The number of resources of all counted groups which currently are in the given state.
+	 */
+	public int getTotalCount(ResourceState state) {
+		int result = 0;
+		for (GroupGauge gauge : groups.values()) {
+			result += gauge.counts.get(state.ordinal());
+		}
+		return result;
+	}
+
+	/**
+	 * Stops counting all resource groups.
+	 */
+	public void clear() {
+		for (ResourceGroup group : groups.keySet()) {
+			groupRemoved(group);
+		}
+	}
+
+	private static class GroupGauge implements ResourceCollectionListener, ResourceListener {
+
+		private final AtomicIntegerArray counts = new AtomicIntegerArray(STATES.length);
+
+		// the state each resource has last been counted in
+		private final ConcurrentMap<Resource, AtomicReference<ResourceState>> resourceStates = new ConcurrentHashMap<Resource, AtomicReference<ResourceState>>();
+
+		@Override
+		public void resourceAdded(Resource resource) {
+			AtomicReference<ResourceState> state = new AtomicReference<ResourceState>();
+			if (resourceStates.putIfAbsent(resource, state) == null) {
+				resource.addResourceListener(this);
+				moveTo(state, resource.getState());
+			}
+		}
+
+		@Override
+		public void resourceRemoved(Resource resource) {
+			AtomicReference<ResourceState> state = resourceStates.remove(resource);
+			if (state != null) {
+				resource.removeResourceListener(this);
+				moveTo(state, null);
+			}
+		}
+
+		@Override
+		public void resourceStateChanged(Resource resource, ResourceState previousState, ResourceState newState) {
+			AtomicReference<ResourceState> state = resourceStates.get(resource);
+			if (state != null) {
+				moveTo(state, newState);
+			}
+		}
+
+		private void moveTo(AtomicReference<ResourceState> state, ResourceState newState) {
+			ResourceState oldState = state.getAndSet(newState);
+			if (oldState == newState) {
+				return;
+			}
+			if (oldState != null) {
+				counts.decrementAndGet(oldState.ordinal());
+			}
+			if (newState != null) {
+				counts.incrementAndGet(newState.ordinal());
+			}
+		}
+
+	}
+
+}
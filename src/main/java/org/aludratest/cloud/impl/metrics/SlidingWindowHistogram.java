@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram over a sliding time window. The window is divided into a fixed number of slots, each being a
+ * {@link LatencyHistogram}. Values are recorded into the slot of the current time; the oldest slot is reset and reused when the
+ * window moves on. A snapshot therefore contains the values of the last <code>slotCount - 1</code> complete slots plus the
+ * current slot.
+ */
+final class SlidingWindowHistogram {
+
+	private final long slotMillis;
+
+	private final LatencyHistogram[] slots;
+
+	// number of the time slot each histogram slot currently holds
+	private final AtomicLongArray slotEpochs;
+
+	SlidingWindowHistogram(long windowMillis, int slotCount) {
+		this(windowMillis, slotCount, LatencyHistogram.SUB_BUCKET_BITS);
+	}
+
+	SlidingWindowHistogram(long windowMillis, int slotCount, int subBucketBits) {
+		this.slotMillis = Math.max(1, windowMillis / slotCount);
+		slots = new LatencyHistogram[slotCount];
+		slotEpochs = new AtomicLongArray(slotCount);
+		for (int i = 0; i < slotCount; i++) {
+			slots[i] = new LatencyHistogram(subBucketBits);
+			slotEpochs.set(i, -1);
+		}
+	}
+
+	void record(long value, long nowMillis) {
+		long epoch = nowMillis / slotMillis;
+		int index = (int) (epoch % slots.length);
+		long slotEpoch = slotEpochs.get(index);
+		if (slotEpoch != epoch) {
+			// only one thread resets an outdated slot
+			if (slotEpoch < epoch && slotEpochs.compareAndSet(index, slotEpoch, epoch)) {
+				slots[index].reset();
+			}
+			else if (slotEpochs.get(index) != epoch) {
+				// very late recording for an already reused slot; ignore
+				return;
+			}
+		}
+		slots[index].record(value);
+	}
+
+	HistogramSnapshot snapshot(long nowMillis) {
+		HistogramSnapshot snapshot = new HistogramSnapshot();
+		addTo(snapshot, nowMillis);
+		return snapshot;
+	}
+
+	/**
+	 * Returns <code>true</code> if no value has been recorded within the window ending at the given time.
+	 * 
+	 * @param nowMillis
+	 *            End of the window.
+	 * 
+	 * @return <code>true</code> if no value has been recorded within the window, <code>false</code> otherwise.
+	 */
+	boolean isIdle(long nowMillis) {
+		long epoch = nowMillis / slotMillis;
+		for (int i = 0; i < slots.length; i++) {
+			if (slotEpochs.get(i) > epoch - slots.length) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void addTo(HistogramSnapshot snapshot, long nowMillis) {
+		long epoch = nowMillis / slotMillis;
+		for (int i = 0; i < slots.length; i++) {
+			long slotEpoch = slotEpochs.get(i);
+			if (slotEpoch > epoch - slots.length && slotEpoch <= epoch) {
+				slots[i].addTo(snapshot);
+			}
+		}
+	}
+
+}
@@ -15,21 +15,34 @@
  */
 package org.aludratest.cloud.impl.request;
 
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.aludratest.cloud.app.CloudManagerApp;
 import org.aludratest.cloud.impl.app.CloudManagerApplicationHolder;
 import org.aludratest.cloud.impl.app.DatabaseRequestLogger;
+import org.aludratest.cloud.impl.manager.DefaultResourceManagerImpl;
+import org.aludratest.cloud.impl.metrics.RequestMetrics;
+import org.aludratest.cloud.impl.metrics.RequestMetrics.Metric;
+import org.aludratest.cloud.impl.request.ResourceRequestFuture.CompletionCallback;
 import org.aludratest.cloud.manager.ManagedResourceQuery;
 import org.aludratest.cloud.manager.ResourceManager;
 import org.aludratest.cloud.manager.ResourceManagerListener;
@@ -73,8 +86,8 @@ import org.slf4j.LoggerFactory;
  * { requestId: 'abc123', waiting: true }
  * </pre>
  * 
- * If you receive such a JSON object from this method, you have up to 60 seconds time to again query for this request, now
- * specifying the request ID:
+ * If you receive such a JSON object from this method, you have up to 60 seconds time (configurable using the system property
+ * <code>acm.request.abandonTimeoutSeconds</code>) to again query for this request, now specifying the request ID:
  * 
  * <pre>
  * handler.handleResourceRequest(user, new JSONObject(&quot;{requestId: 'abc123'}&quot;));
@@ -89,8 +102,21 @@ import org.slf4j.LoggerFactory;
  * 
  * Note that the <code>resource</code> object within the result object is defined by the requested resource type and its JSON
  * resource writer. <br>
- * If you do not re-query a request within 60 seconds after receiving a "waiting" response, the handler will signal the resource
- * manager to abort the request. <br>
+ * If you do not re-query a request within this time after receiving a "waiting" response, the handler will signal the
+ * resource manager to abort the request. Abandoned requests are detected by a sweep over all waiting requests once per second,
+ * so re-querying a request only updates its deadline. <br>
+ * <br>
+ * A request can only be polled and released by the user who has submitted it; for other users, it behaves like an unknown
+ * request. Request IDs are encrypted with a random key per server start, so they cannot be derived from other request IDs.
+ * <br>
+ * <br>
+ * Callers which must not block, e.g. servlets using asynchronous request processing, can use
+ * {@link #handleResourceRequest(User, JSONObject, PollListener)} instead. This method returns immediately and notifies the given
+ * listener as soon as the result of the poll can be retrieved using {@link #completePoll(String)} without blocking. <br>
+ * <br>
+ * Each request runs through the states <code>WAITING</code>, <code>ASSIGNED</code>, <code>ACTIVE</code> and finally
+ * <code>RELEASED</code> or <code>ABORTED</code>. All state changes are atomic compare-and-set transitions on the single request,
+ * so no lock is held by this handler, and the resource manager's scheduler is never blocked by HTTP threads.
  * 
  * @author falbrech
  * 
@@ -99,16 +125,39 @@ public class ClientRequestHandler implements ResourceManagerListener {
 
 	private static final Logger LOG = LoggerFactory.getLogger(ClientRequestHandler.class);
 
-	private Map<String, WaitingRequest> requestQueries = new HashMap<String, WaitingRequest>();
+	private static final int POLL_TIMEOUT_SECONDS = 10;
+
+	private static final long POLL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(POLL_TIMEOUT_SECONDS);
 
-	/* The resources which were sent by this Servlet and can be released. */
-	private Map<String, Resource> activeResources = new HashMap<String, Resource>();
+	private static final long ABANDON_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Math.max(1,
+			Integer.getInteger("acm.request.abandonTimeoutSeconds", 60).intValue()));
+
+	private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/*
+	 * Source of request keys. Seeded with the startup time, shifted far enough that keys of a later start never repeat keys of an
+	 * earlier one, as these are primary keys of the request log.
+	 */
+	private static final AtomicLong requestKeySequence = new AtomicLong(System.currentTimeMillis() << 20);
+
+	/*
+	 * Encrypts sequence values to request keys. A 64 bit block cipher is a bijection on the values, so keys stay unique, and
+	 * without its random key, no request key can be computed from another one.
+	 */
+	private static final Cipher requestKeyCipher = createRequestKeyCipher();
 
-	/* Scheduler for aborting queries which have no longer been requested */
+	/* All requests which have not yet been released or aborted, including those whose resource has been sent to the client. */
+	private final ConcurrentMap<String, TrackedRequest> requests = new ConcurrentHashMap<String, TrackedRequest>();
+
+	/* Scheduler for timing out polls and aborting queries which have no longer been requested */
 	private ScheduledExecutorService abortScheduler = Executors.newScheduledThreadPool(1);
 
 	private ResourceManager manager;
 
+	private RequestMetrics metrics;
+
 	/**
 	 * Constructs a new request handler which uses the given manager for request submission and listening to request events.
 	 * 
@@ -117,7 +166,30 @@ public class ClientRequestHandler implements ResourceManagerListener {
 	 */
 	public ClientRequestHandler(ResourceManager manager) {
 		this.manager = manager;
+		this.metrics = CloudManagerApplicationHolder.getInstance().getRequestMetrics();
 		manager.addResourceManagerListener(this);
+
+		abortScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				// never die due to exception, as no further sweeps would be executed
+				try {
+					sweepWaitingRequests();
+				}
+				catch (Throwable t) {
+					LOG.error("Unhandled exception when checking waiting requests", t);
+				}
+			}
+		}, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic checks of waiting requests and detaches this handler from the resource manager. Requests which are
+	 * still registered are no longer served afterwards.
+	 */
+	public void shutdown() {
+		manager.removeResourceManagerListener(this);
+		abortScheduler.shutdownNow();
 	}
 
 	/**
@@ -135,12 +207,37 @@ public class ClientRequestHandler implements ResourceManagerListener {
 	 *             If the input JSON object is invalid.
 	 */
 	public JSONObject handleResourceRequest(User user, JSONObject object) throws JSONException {
+		return handleResourceRequest(user, object, null);
+	}
+
+	/**
+	 * Handles the given resource request without blocking, if a poll listener is specified. If the result of the request is
+	 * known immediately (e.g. an error, or a resource which already has been assigned), it is returned. Otherwise,
+	 * <code>null</code> is returned, and the given listener is notified exactly once when a resource has been assigned to the
+	 * request, the request has failed, or the poll timeout of 10 seconds has elapsed. The listener then has to call
+	 * {@link #completePoll(String)} to retrieve the result object. <br>
+	 * If no listener is specified, this method blocks like {@link #handleResourceRequest(User, JSONObject)}.
+	 * 
+	 * @param user
+	 *            User submitting the request.
+	 * @param object
+	 *            Request object.
+	 * @param listener
+	 *            Listener to notify when the result of the request is available, or <code>null</code> to block until then.
+	 * 
+	 * @return A JSON object describing the received resource, indicating an error or that the request is still waiting for a
+	 *         resource to receive, or <code>null</code> if the listener will be notified later.
+	 * 
+	 * @throws JSONException
+	 *             If the input JSON object is invalid.
+	 */
+	public JSONObject handleResourceRequest(User user, JSONObject object, PollListener listener) throws JSONException {
 		LOG.debug("Handling resource request for user " + user);
 		try {
 			// if there is already a request ID, get query belonging to it
 			if (object.has("requestId")) {
 				String requestId = object.getString("requestId");
-				return waitForFuture(requestId);
+				return listener == null ? waitForFuture(user, requestId) : startPoll(user, requestId, listener);
 			}
 
 			ResourceModule module = CloudManagerApp.getInstance().getResourceModule(object.getString("resourceType"));
@@ -186,24 +283,33 @@ public class ClientRequestHandler implements ResourceManagerListener {
 					"niceLevel", 0), name, attributes);
 			
 			final DatabaseRequestLogger requestLogger = CloudManagerApplicationHolder.getInstance().getRequestLogger();
-			final long dbRequestId = requestLogger.createRequestLog(user, name);
+			requestLogger.createRequestLog(requestId, user, name);
 
-			WaitingRequest wr = new WaitingRequest();
-			wr.future = new WaitForResource();
-			wr.dbRequestId = dbRequestId;
+			final TrackedRequest wr = new TrackedRequest();
+			wr.request = request;
+			wr.future = new ResourceRequestFuture();
 			wr.jobName = name;
 			wr.user = user;
+			wr.resourceType = module.getResourceType().getName();
+			wr.abandonDeadlineNanos = System.nanoTime() + POLL_TIMEOUT_NANOS + ABANDON_TIMEOUT_NANOS;
+			wr.future.addCallback(new CompletionCallback() {
+				@Override
+				public void completed(ResourceRequestFuture future) {
+					if (future.isCancelled()) {
+						cancelManagedRequest(wr.request);
+					}
+					firePendingPoll(wr);
+				}
+			});
 
 			LOG.debug("Request " + requestId + " started");
 
-			synchronized (this) {
-				requestQueries.put(requestId, wr);
-			}
+			requests.put(requestId, wr);
 
 			// returns immediately; notifies via listener methods
 			manager.handleResourceRequest(request);
 
-			return waitForFuture(requestId);
+			return listener == null ? waitForFuture(user, requestId) : startPoll(user, requestId, listener);
 		}
 		catch (SQLException e) {
 			return createErrorObject(e);
@@ -213,24 +319,28 @@ public class ClientRequestHandler implements ResourceManagerListener {
 	/**
 	 * Handles a request to release the resource which has been assigned to the given resource request.
 	 * 
+	 * @param user
+	 *            User requesting the release. Only the user who has submitted the resource request can release its resource.
 	 * @param requestId
 	 *            ID of the resource request to release the assigned resource of.
 	 * 
 	 * @return <code>true</code> if the request was found and the resource has been released, <code>false</code> if no request
-	 *         with the given ID exists.
+	 *         with the given ID exists for the given user.
 	 */
-	public boolean handleReleaseRequest(String requestId) {
+	public boolean handleReleaseRequest(User user, String requestId) {
 		LOG.debug("Releasing resource for request " + requestId);
 
-		Resource resource;
-		synchronized (this) {
-			resource = activeResources.remove(requestId);
-		}
-
-		if (resource == null) {
+		TrackedRequest request = requests.get(requestId);
+		if (request == null || !isOwner(request, user) || !request.transition(RequestState.ACTIVE, RequestState.RELEASED)) {
 			return false;
 		}
 
+		requests.remove(requestId, request);
+		releaseResource(request.resource);
+		return true;
+	}
+
+	private void releaseResource(Resource resource) {
 		if (resource instanceof UsableResource) {
 			// for correct notification of manager, if not yet used, start it
 			if (resource.getState() != ResourceState.IN_USE) {
@@ -239,8 +349,6 @@ public class ClientRequestHandler implements ResourceManagerListener {
 
 			((UsableResource) resource).stopUsing();
 		}
-
-		return true;
 	}
 
 	/**
@@ -251,52 +359,153 @@ public class ClientRequestHandler implements ResourceManagerListener {
 	 */
 	public void abortWaitingRequest(String requestId) {
 		LOG.debug("Abort waiting request " + requestId);
-		WaitingRequest wr = requestQueries.remove(requestId);
-		if (wr != null) {
-			if (wr.future.isDone()) {
-				try {
-					Resource res = wr.future.get();
-					synchronized (this) {
-						activeResources.put(requestId, res);
-					}
-					handleReleaseRequest(requestId);
-				}
-				catch (Exception ex) {
-					// ignore
-				}
-			}
-			wr.future.cancel(false);
+		TrackedRequest request = requests.get(requestId);
+		if (request == null) {
+			return;
+		}
+
+		if (request.transition(RequestState.WAITING, RequestState.ABORTED)) {
+			requests.remove(requestId, request);
+			request.future.cancel(false);
+		}
+		else if (request.transition(RequestState.ASSIGNED, RequestState.ABORTED)) {
+			// release a resource which has not been picked up by the client
+			requests.remove(requestId, request);
+			releaseResource(request.resource);
+		}
+		else if (request.state.get() == RequestState.ABORTED) {
+			// failed request whose error has not been picked up by the client
+			requests.remove(requestId, request);
 		}
 	}
 
-	private JSONObject waitForFuture(final String requestId) throws JSONException, SQLException {
-		WaitingRequest request;
-		synchronized (this) {
-			request = requestQueries.get(requestId);
-			if (request == null) {
-				return createErrorObject("Invalid request ID");
-			}
+	private void cancelManagedRequest(ClientRequestImpl request) {
+		if (manager instanceof DefaultResourceManagerImpl
+				&& ((DefaultResourceManagerImpl) manager).cancelResourceRequest(request)) {
+			LOG.debug("Removed request " + request.getRequestId() + " from resource manager queue");
 		}
+	}
+
+	private static boolean isOwner(TrackedRequest request, User user) {
+		return request.user.getName().equals(user.getName()) && request.user.getSource().equals(user.getSource());
+	}
 
-		// stop already scheduled abandon task, if any
-		if (request.abandonFuture != null) {
-			request.abandonFuture.cancel(false);
+	private TrackedRequest startPolling(User user, String requestId) {
+		TrackedRequest request = requests.get(requestId);
+		// requests of other users are reported as unknown, so their existence is not revealed
+		if (request == null || !isOwner(request, user) || !request.isPollable()) {
+			return null;
+		}
+
+		long now = System.nanoTime();
+		request.pollStartNanos = now;
+		// covers polls which never deliver their result, e.g. because the client connection has been closed
+		request.abandonDeadlineNanos = now + POLL_TIMEOUT_NANOS + ABANDON_TIMEOUT_NANOS;
+		return request;
+	}
+
+	private JSONObject waitForFuture(User user, String requestId) throws JSONException, SQLException {
+		TrackedRequest request = startPolling(user, requestId);
+		if (request == null) {
+			return createErrorObject("Invalid request ID");
 		}
 
 		try {
 			// wait for max 10 seconds - if it takes longer -> TimeoutException
-			Resource resource = request.future.get(10, TimeUnit.SECONDS);
+			request.future.get(POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (ExecutionException e) {
+			// reported by collectResult()
+		}
+		catch (CancellationException e) {
+			// reported by collectResult()
+		}
+		catch (TimeoutException e) {
+			// reported by collectResult()
+		}
+		catch (InterruptedException e) {
+			return createErrorObject("AludraTest Cloud Manager server is shutting down");
+		}
+
+		return collectResult(requestId, request);
+	}
+
+	private JSONObject startPoll(User user, String requestId, PollListener listener) throws JSONException, SQLException {
+		TrackedRequest request = startPolling(user, requestId);
+		if (request == null) {
+			return createErrorObject("Invalid request ID");
+		}
+
+		if (request.future.isDone()) {
+			return collectResult(requestId, request);
+		}
+
+		// a client only polls once at a time; a previous poll belongs to a connection which has been given up
+		PendingPoll previous = request.pendingPoll;
+		if (previous != null) {
+			previous.supersede(createWaitingObject(requestId));
+		}
+
+		PendingPoll poll = new PendingPoll(requestId, listener, request.pollStartNanos + POLL_TIMEOUT_NANOS);
+		request.pendingPoll = poll;
 
-			// OK, first of all, delete waiting query
-			synchronized (this) {
-				requestQueries.remove(requestId);
-				activeResources.put(requestId, resource);
+		// result could have been set before the poll was registered
+		if (request.future.isDone()) {
+			poll.fire();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the result of a poll started using {@link #handleResourceRequest(User, JSONObject, PollListener)}, after its
+	 * listener has been notified. This method does not block. If no resource has been assigned to the request yet, a "waiting"
+	 * object is returned.
+	 * 
+	 * @param requestId
+	 *            ID of the request which has been passed to the listener.
+	 * 
+	 * @return A JSON object describing the received resource, indicating an error or that the request is still waiting for a
+	 *         resource to receive.
+	 * 
+	 * @throws JSONException
+	 *             If the result object could not be created.
+	 */
+	public JSONObject completePoll(String requestId) throws JSONException {
+		TrackedRequest request = requests.get(requestId);
+		if (request == null || !request.isPollable()) {
+			return createErrorObject("Invalid request ID");
+		}
+
+		try {
+			return collectResult(requestId, request);
+		}
+		catch (SQLException e) {
+			return createErrorObject(e);
+		}
+	}
+
+	private JSONObject collectResult(String requestId, TrackedRequest request) throws JSONException, SQLException {
+		try {
+			if (!request.future.isDone()) {
+				// if not re-requested in time, the request is aborted by the next sweep
+				request.abandonDeadlineNanos = System.nanoTime() + ABANDON_TIMEOUT_NANOS;
+
+				return createWaitingObject(requestId);
 			}
 
-			startWorking(resource, request.user, request.jobName, request.dbRequestId);
+			// does not block, as the future is done
+			Resource resource = request.future.get(0, TimeUnit.SECONDS);
+
+			// fails if the request has been aborted or its resource has been delivered by a concurrent poll
+			if (!request.transition(RequestState.ASSIGNED, RequestState.ACTIVE)) {
+				return createErrorObject(request.state.get() == RequestState.ABORTED ? "Request has been aborted"
+						: "Invalid request ID");
+			}
+
+			startWorking(resource, request.user, request.jobName, requestId);
 
 			ResourceWriterFactory factory = CloudManagerApp.getInstance().getResourceWriterFactory(resource.getResourceType());
-			factory.getResourceWriter(JSONResourceWriter.class);
 			JSONResourceWriter writer = factory.getResourceWriter(JSONResourceWriter.class);
 
 			// wrap it with meta object
@@ -309,26 +518,24 @@ public class ClientRequestHandler implements ResourceManagerListener {
 		}
 		catch (ExecutionException e) {
 			LOG.error("Execution exception when waiting for resource", e);
+			// error has been reported to the client, so forget about the request
+			requests.remove(requestId, request);
 			return createErrorObject(e.getMessage());
 		}
+		catch (CancellationException e) {
+			requests.remove(requestId, request);
+			return createErrorObject("Request has been aborted");
+		}
 		catch (InterruptedException e) {
 			return createErrorObject("AludraTest Cloud Manager server is shutting down");
 		}
 		catch (TimeoutException e) {
-			JSONObject result = new JSONObject();
-			result.put("requestId", requestId);
-			result.put("waiting", true);
-
-			// if not re-requested within 60 seconds, abort
-			request.abandonFuture = abortScheduler.schedule(new Runnable() {
-				@Override
-				public void run() {
-					LOG.debug("Aborting inactive request " + requestId);
-					abortWaitingRequest(requestId);
-				}
-			}, 60, TimeUnit.SECONDS);
-
-			return result;
+			// cannot occur, as the future is done
+			return createErrorObject("Resource request timed out");
+		}
+		finally {
+			metrics.record(Metric.POLL_TIME, request.resourceType, request.user.getName(),
+					TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.pollStartNanos));
 		}
 	}
 
@@ -339,17 +546,23 @@ public class ClientRequestHandler implements ResourceManagerListener {
 		}
 
 		ClientRequestImpl creq = (ClientRequestImpl) request.getRequest();
-		String id = creq.getRequestId();
+		TrackedRequest tr = requests.get(creq.getRequestId());
 
-		synchronized (this) {
-			if (requestQueries.containsKey(id)) {
-				WaitingRequest wr = requestQueries.get(id);
-				wr.future.setResource(availableResource);
-				return true;
-			}
+		// a request is only offered one resource at a time, so the resource cannot be overwritten by a concurrent offer
+		if (tr == null || tr.state.get() != RequestState.WAITING) {
+			return false;
 		}
-		
-		return false;
+
+		// published to aborting threads by the state transition
+		tr.resource = availableResource;
+
+		// fails if the request has been aborted in the meantime
+		if (!tr.transition(RequestState.WAITING, RequestState.ASSIGNED)) {
+			return false;
+		}
+
+		tr.future.complete(availableResource);
+		return true;
 	}
 
 	@Override
@@ -359,16 +572,42 @@ public class ClientRequestHandler implements ResourceManagerListener {
 		}
 
 		ClientRequestImpl creq = (ClientRequestImpl) request.getRequest();
-		String id = creq.getRequestId();
+		TrackedRequest tr = requests.get(creq.getRequestId());
 
-		synchronized (this) {
-			if (requestQueries.containsKey(id)) {
-				WaitingRequest wr = requestQueries.get(id);
-				wr.future.setErrorMessage(errorMessage, cause);
+		// request stays registered until the client has received the error
+		if (tr != null && tr.transition(RequestState.WAITING, RequestState.ABORTED)) {
+			tr.future.fail(errorMessage, cause);
+		}
+	}
+
+	private void sweepWaitingRequests() {
+		long now = System.nanoTime();
+		for (Map.Entry<String, TrackedRequest> entry : requests.entrySet()) {
+			TrackedRequest request = entry.getValue();
+			if (!request.isPollable()) {
+				// resource has been delivered to the client and is released explicitly
+				continue;
+			}
+
+			PendingPoll poll = request.pendingPoll;
+			if (poll != null && now - poll.deadlineNanos >= 0) {
+				poll.fire();
+			}
+
+			if (now - request.abandonDeadlineNanos >= 0) {
+				LOG.debug("Aborting inactive request " + entry.getKey());
+				abortWaitingRequest(entry.getKey());
 			}
 		}
 	}
 
+	private static void firePendingPoll(TrackedRequest request) {
+		PendingPoll poll = request.pendingPoll;
+		if (poll != null) {
+			poll.fire();
+		}
+	}
+
 	@Override
 	public void requestEnqueued(ManagedResourceQuery request) {
 		// not of any interest for us
@@ -379,7 +618,7 @@ public class ClientRequestHandler implements ResourceManagerListener {
 		// not of any interest for us
 	}
 
-	private void startWorking(Resource resource, User user, String jobName, final long dbRequestId)
+	private void startWorking(Resource resource, User user, String jobName, final String requestId)
 			throws SQLException {
 		final DatabaseRequestLogger requestLogger = CloudManagerApplicationHolder.getInstance().getRequestLogger();
 
@@ -388,7 +627,7 @@ public class ClientRequestHandler implements ResourceManagerListener {
 			((UsableResource) resource).startUsing();
 		}
 
-		requestLogger.updateRequestLogWorkStarted(dbRequestId, resource.getResourceType().getName(), resource.toString());
+		requestLogger.updateRequestLogWorkStarted(requestId, resource.getResourceType().getName(), resource.toString());
 
 		resource.addResourceListener(new ResourceListener() {
 			@Override
@@ -413,7 +652,7 @@ public class ClientRequestHandler implements ResourceManagerListener {
 						}
 
 					}
-					requestLogger.updateRequestLogWorkDone(dbRequestId, reason, cnt);
+					requestLogger.updateRequestLogWorkDone(requestId, reason, cnt);
 					resource.removeResourceListener(this);
 				}
 			}
@@ -421,17 +660,61 @@ public class ClientRequestHandler implements ResourceManagerListener {
 
 	}
 
-	private String generateUniqueRequestKey() {
-		String key = null;
-		do {
-			StringBuilder sb = new StringBuilder();
-			for (int i = 0; i < 16; i++) {
-				sb.append(Integer.toHexString((int) (Math.random() * 16)));
+	private static String generateUniqueRequestKey() {
+		long value = encryptRequestKey(requestKeySequence.incrementAndGet());
+
+		char[] key = new char[16];
+		for (int i = key.length - 1; i >= 0; i--) {
+			key[i] = HEX_DIGITS[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+		return new String(key);
+	}
+
+	private static long encryptRequestKey(long value) {
+		byte[] block = new byte[8];
+		for (int i = block.length - 1; i >= 0; i--) {
+			block[i] = (byte) value;
+			value >>>= 8;
+		}
+
+		try {
+			// Cipher instances are not thread-safe
+			synchronized (requestKeyCipher) {
+				block = requestKeyCipher.doFinal(block);
 			}
-			key = sb.toString();
 		}
-		while (requestQueries.containsKey(key) || activeResources.containsKey(key));
-		return key;
+		catch (GeneralSecurityException e) {
+			// cannot occur for a full block without padding
+			throw new IllegalStateException("Could not encrypt request key", e);
+		}
+
+		long result = 0;
+		for (byte b : block) {
+			result = (result << 8) | (b & 0xff);
+		}
+		return result;
+	}
+
+	private static Cipher createRequestKeyCipher() {
+		byte[] key = new byte[24];
+		new SecureRandom().nextBytes(key);
+		try {
+			// DESede is the 64 bit block cipher every Java platform has to support
+			Cipher cipher = Cipher.getInstance("DESede/ECB/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "DESede"));
+			return cipher;
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not initialize request key cipher", e);
+		}
+	}
+
+	private JSONObject createWaitingObject(String requestId) throws JSONException {
+		JSONObject result = new JSONObject();
+		result.put("requestId", requestId);
+		result.put("waiting", true);
+		return result;
 	}
 
 	private JSONObject createErrorObject(Throwable t) throws JSONException {
@@ -448,9 +731,10 @@ public class ClientRequestHandler implements ResourceManagerListener {
 	JSONArray getRequestQueries() throws JSONException {
 		JSONArray result = new JSONArray();
 
-		for (Map.Entry<String, WaitingRequest> entry : requestQueries.entrySet()) {
+		for (Map.Entry<String, TrackedRequest> entry : requests.entrySet()) {
 			JSONObject obj = new JSONObject();
 			obj.put("requestId", entry.getKey());
+			obj.put("state", entry.getValue().state.get().name());
 
 			JSONObject req = new JSONObject();
 			req.put("jobName", entry.getValue().jobName);
@@ -463,94 +747,106 @@ public class ClientRequestHandler implements ResourceManagerListener {
 		return result;
 	}
 
-	private static class WaitingRequest {
+	private static enum RequestState {
+		WAITING, ASSIGNED, ACTIVE, RELEASED, ABORTED
+	}
+
+	private static class TrackedRequest {
+
+		private final AtomicReference<RequestState> state = new AtomicReference<RequestState>(RequestState.WAITING);
 
-		private WaitForResource future;
+		private ClientRequestImpl request;
 
-		private long dbRequestId;
+		private ResourceRequestFuture future;
 
 		private User user;
 
 		private String jobName;
 
-		private ScheduledFuture<?> abandonFuture;
+		private String resourceType;
 
-	}
-
-	private static class WaitForResource implements Future<Resource> {
+		private volatile long pollStartNanos;
 
-		private Resource resource;
+		private volatile long abandonDeadlineNanos;
 
-		private String errorMessage;
+		private volatile PendingPoll pendingPoll;
 
-		private Throwable cause;
+		/* the assigned resource; only valid in states ASSIGNED, ACTIVE and RELEASED */
+		private volatile Resource resource;
 
-		public synchronized void setResource(Resource resource) {
-			this.resource = resource;
-			notify();
+		private boolean transition(RequestState from, RequestState to) {
+			return state.compareAndSet(from, to);
 		}
 
-		public synchronized void setErrorMessage(String errorMessage, Throwable cause) {
-			this.errorMessage = errorMessage;
-			this.cause = cause;
-			notify();
+		/* true as long as the client has not yet received the result of the request */
+		private boolean isPollable() {
+			RequestState current = state.get();
+			return current != RequestState.ACTIVE && current != RequestState.RELEASED;
 		}
 
-		public synchronized Resource getResource() {
-			return resource;
-		}
+	}
 
-		public synchronized String getErrorMessage() {
-			return errorMessage;
-		}
+	/**
+	 * Listener which is notified when the result of a non-blocking poll for a resource request is available. See
+	 * {@link ClientRequestHandler#handleResourceRequest(User, JSONObject, PollListener)} for details.
+	 */
+	public static interface PollListener {
+
+		/**
+		 * Called when the result of a poll for the given request can be retrieved using
+		 * {@link ClientRequestHandler#completePoll(String)}. This method is called from scheduler or timer threads, so
+		 * implementations must return quickly and should not retrieve the result in the calling thread.
+		 * 
+		 * @param requestId
+		 *            ID of the request the poll has been started for.
+		 */
+		public void resultAvailable(String requestId);
+
+		/**
+		 * Called when the poll has been replaced by a newer poll for the same request, e.g. because the client has given up the
+		 * connection of this poll. The result of the request is delivered to the newer poll, so this poll must be answered with
+		 * the given object, which indicates that the request is still waiting. This method is called from the thread starting
+		 * the newer poll, so implementations must return quickly.
+		 * 
+		 * @param requestId
+		 *            ID of the request the poll has been started for.
+		 * @param waitingObject
+		 *            JSON object to answer the poll with.
+		 */
+		public void pollSuperseded(String requestId, JSONObject waitingObject);
 
-		@Override
-		public synchronized boolean cancel(boolean mayInterruptIfRunning) {
-			return false;
-		}
+	}
 
-		@Override
-		public synchronized boolean isCancelled() {
-			return false;
-		}
+	private static class PendingPoll {
 
-		@Override
-		public boolean isDone() {
-			return getResource() != null;
-		}
+		private final String requestId;
 
-		@Override
-		public Resource get() throws InterruptedException, ExecutionException {
-			while (getResource() != null && getErrorMessage() != null) {
-				wait(2000);
-			}
+		private final PollListener listener;
 
-			if (getErrorMessage() != null) {
-				throw new ExecutionException(errorMessage, cause);
-			}
+		private final long deadlineNanos;
+
+		private final AtomicBoolean fired = new AtomicBoolean();
 
-			return resource;
+		private PendingPoll(String requestId, PollListener listener, long deadlineNanos) {
+			this.requestId = requestId;
+			this.listener = listener;
+			this.deadlineNanos = deadlineNanos;
 		}
 
-		@Override
-		public Resource get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-			if (getResource() != null) {
-				return resource;
-			}
-			if (getErrorMessage() != null) {
-				throw new ExecutionException(errorMessage, cause);
+		private void fire() {
+			if (cancel()) {
+				listener.resultAvailable(requestId);
 			}
+		}
 
-			synchronized (this) {
-				wait(TimeUnit.MILLISECONDS.convert(timeout, unit));
-			}
-			if (getErrorMessage() != null) {
-				throw new ExecutionException(errorMessage, cause);
-			}
-			if (getResource() == null) {
-				throw new TimeoutException();
+		private void supersede(JSONObject waitingObject) {
+			if (cancel()) {
+				listener.pollSuperseded(requestId, waitingObject);
 			}
-			return resource;
+		}
+
+		private boolean cancel() {
+			return fired.compareAndSet(false, true);
 		}
 
 	}
@@ -22,6 +22,7 @@ import java.io.OutputStream;
 import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -29,6 +30,9 @@ import java.util.regex.Pattern;
 import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -36,6 +40,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.aludratest.cloud.app.CloudManagerApp;
+import org.aludratest.cloud.impl.request.ClientRequestHandler.PollListener;
 import org.aludratest.cloud.impl.user.BasicAuthUtil;
 import org.aludratest.cloud.user.User;
 import org.apache.commons.io.IOUtils;
@@ -57,7 +62,14 @@ import org.slf4j.LoggerFactory;
  * The servlet will answer with the JSON object received from the {@link ClientRequestHandler}, possibly indicating that no
  * resource has become available within an internal given timeout (usually 10 seconds), and the client should send a new HTTP
  * request to retrieve the status of the pending resource request. See {@link ClientRequestHandler} for more details on the JSON
- * object formats.
+ * object formats. <br>
+ * <br>
+ * A received resource is released by sending a <code>DELETE</code> request to <code>/resource/&lt;requestId&gt;</code>. This
+ * request also requires a Basic Authentication header, and is only accepted for the user who has requested the resource. <br>
+ * <br>
+ * If asynchronous processing is enabled for the servlet in the deployment descriptor, waiting requests do not block a container
+ * thread. The request is suspended instead, and completed as soon as a resource has been assigned, an error occurred, or the
+ * poll timeout has elapsed. Otherwise, the container thread blocks until then.
  * 
  * @author falbrech
  * 
@@ -78,6 +90,13 @@ public class ClientRequestServlet extends HttpServlet {
 
 	private static final Pattern PATTERN_RESOURCE_ID_URI = Pattern.compile("/([0-9a-fA-F]{16})");
 
+	// safety net only; the request handler completes each poll after 10 seconds
+	private static final long ASYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	private static final String HANDLER_MBEAN_NAME = "org.aludratest.cloud:type=ClientRequestHandler";
+
+	private static final String AUTH_CACHE_MBEAN_NAME = "org.aludratest.cloud:type=AuthenticationCache";
+
 	private ClientRequestHandler requestHandler;
 
 	private GateKeeper requestSeparator = new GateKeeper(100, TimeUnit.MILLISECONDS);
@@ -96,11 +115,39 @@ public class ClientRequestServlet extends HttpServlet {
 		// register request handler as MBean
 		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
 		try {
-			mbs.registerMBean(requestHandler, new ObjectName("org.aludratest.cloud:type=ClientRequestHandler"));
+			mbs.registerMBean(requestHandler, new ObjectName(HANDLER_MBEAN_NAME));
 		}
 		catch (JMException e) {
 			LOG.error("Could not register request handler in MBean Server", e);
 		}
+		try {
+			mbs.registerMBean(BasicAuthUtil.getAuthenticationCache(), new ObjectName(AUTH_CACHE_MBEAN_NAME));
+		}
+		catch (JMException e) {
+			LOG.error("Could not register authentication cache in MBean Server", e);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		// otherwise, registration fails after a redeployment, and the MBean server keeps the old classes
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		for (String name : new String[] { HANDLER_MBEAN_NAME, AUTH_CACHE_MBEAN_NAME }) {
+			try {
+				ObjectName objectName = new ObjectName(name);
+				if (mbs.isRegistered(objectName)) {
+					mbs.unregisterMBean(objectName);
+				}
+			}
+			catch (JMException e) {
+				LOG.error("Could not unregister " + name + " from MBean Server", e);
+			}
+		}
+
+		if (requestHandler != null) {
+			requestHandler.shutdown();
+		}
+		super.destroy();
 	}
 
 	// for debugging purposes
@@ -130,9 +177,16 @@ public class ClientRequestServlet extends HttpServlet {
 			return;
 		}
 
+		// only the user who has requested the resource may release it
+		User user = BasicAuthUtil.authenticate(req, resp);
+		if (user == null) {
+			LOG.debug("No or invalid user information in release request. Aborting.");
+			return;
+		}
+
 		String resourceKey = m.group(1);
 
-		if (requestHandler.handleReleaseRequest(resourceKey)) {
+		if (requestHandler.handleReleaseRequest(user, resourceKey)) {
 			resp.setStatus(HttpServletResponse.SC_OK);
 		}
 		else {
@@ -200,30 +254,21 @@ public class ClientRequestServlet extends HttpServlet {
 			String jsonSource = new String(baos.toByteArray(), "UTF-8");
 			try {
 				JSONObject requestObject = new JSONObject(jsonSource);
-				waitingRequests.incrementAndGet();
-				JSONObject resultObject = requestHandler.handleResourceRequest(user, requestObject);
-				waitingRequests.decrementAndGet();
-
-				// send it to response
-				StringWriter writer = new StringWriter();
-				resultObject.write(writer);
-				resp.setStatus(HttpServletResponse.SC_OK);
-				resp.setCharacterEncoding("UTF-8");
-				resp.setContentType(JSON_CONTENT_TYPE);
-				byte[] resultData = writer.toString().getBytes("UTF-8");
-				resp.setContentLength(resultData.length);
+				if (req.isAsyncSupported()) {
+					handleResourceRequestAsync(req, user, requestObject);
+					return;
+				}
 
+				waitingRequests.incrementAndGet();
+				JSONObject resultObject;
 				try {
-					OutputStream os = resp.getOutputStream();
-					os.write(resultData);
-					os.close();
+					resultObject = requestHandler.handleResourceRequest(user, requestObject);
 				}
-				catch (IOException e) {
-					// client closed connection during wait
-					if (resultObject.has("requestId")) {
-						requestHandler.abortWaitingRequest(resultObject.getString("requestId"));
-					}
+				finally {
+					waitingRequests.decrementAndGet();
 				}
+
+				sendResult(resp, resultObject);
 			}
 			catch (JSONException e) {
 				LOG.debug("JSON exception occurred. Sending BAD_REQUEST.");
@@ -236,4 +281,172 @@ public class ClientRequestServlet extends HttpServlet {
 		}
 	}
 
+	private void handleResourceRequestAsync(HttpServletRequest req, User user, JSONObject requestObject) {
+		AsyncContext asyncContext = req.startAsync();
+		asyncContext.setTimeout(ASYNC_TIMEOUT_MILLIS);
+
+		AsyncPoll poll = new AsyncPoll(asyncContext, user);
+		asyncContext.addListener(poll);
+		waitingRequests.incrementAndGet();
+
+		JSONObject resultObject;
+		try {
+			resultObject = requestHandler.handleResourceRequest(user, requestObject, poll);
+		}
+		catch (JSONException e) {
+			LOG.debug("JSON exception occurred. Sending BAD_REQUEST.");
+			poll.fail(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		catch (RuntimeException e) {
+			LOG.error("Could not handle resource request", e);
+			poll.fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
+		}
+
+		// result immediately available; otherwise, poll is notified later
+		if (resultObject != null) {
+			poll.complete(resultObject);
+		}
+	}
+
+	private void sendResult(HttpServletResponse resp, JSONObject resultObject) throws IOException, JSONException {
+		// send it to response
+		StringWriter writer = new StringWriter();
+		resultObject.write(writer);
+		resp.setStatus(HttpServletResponse.SC_OK);
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentType(JSON_CONTENT_TYPE);
+		byte[] resultData = writer.toString().getBytes("UTF-8");
+		resp.setContentLength(resultData.length);
+
+		try {
+			OutputStream os = resp.getOutputStream();
+			os.write(resultData);
+			os.close();
+		}
+		catch (IOException e) {
+			// client closed connection during wait
+			if (resultObject.has("requestId")) {
+				requestHandler.abortWaitingRequest(resultObject.getString("requestId"));
+			}
+		}
+	}
+
+	/**
+	 * A suspended HTTP request waiting for the result of a resource request poll. Completes the HTTP request exactly once, either
+	 * with the poll result, with a "waiting" object if the poll has been superseded by a newer one, with HTTP status 503 if the
+	 * container reports a timeout first, or without a response if the container reports an error first.
+	 */
+	private class AsyncPoll implements PollListener, AsyncListener {
+
+		private final AsyncContext asyncContext;
+
+		private final User user;
+
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private AsyncPoll(AsyncContext asyncContext, User user) {
+			this.asyncContext = asyncContext;
+			this.user = user;
+		}
+
+		@Override
+		public void resultAvailable(final String requestId) {
+			if (done.get()) {
+				// leave result for the next poll of the client
+				return;
+			}
+			// do not build the result in scheduler or timer threads
+			try {
+				asyncContext.start(new Runnable() {
+					@Override
+					public void run() {
+						JSONObject resultObject;
+						try {
+							resultObject = requestHandler.completePoll(requestId);
+						}
+						catch (JSONException e) {
+							LOG.error("Could not create result object for request " + requestId, e);
+							fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+							return;
+						}
+						complete(resultObject);
+					}
+				});
+			}
+			catch (IllegalStateException e) {
+				// timed out in the meantime; leave result for the next poll of the client
+				LOG.debug("Request for " + requestId + " has already been completed");
+			}
+		}
+
+		@Override
+		public void pollSuperseded(String requestId, JSONObject waitingObject) {
+			complete(waitingObject);
+		}
+
+		private void complete(JSONObject resultObject) {
+			if (!done.compareAndSet(false, true)) {
+				// client is gone; make sure an assigned resource does not get lost
+				if (resultObject.has("resource")) {
+					requestHandler.handleReleaseRequest(user, resultObject.optString("requestId"));
+				}
+				return;
+			}
+			waitingRequests.decrementAndGet();
+			try {
+				sendResult((HttpServletResponse) asyncContext.getResponse(), resultObject);
+			}
+			catch (IOException e) {
+				LOG.debug("Could not send result to client", e);
+			}
+			catch (JSONException e) {
+				LOG.error("Could not send result to client", e);
+			}
+			finally {
+				asyncContext.complete();
+			}
+		}
+
+		private void fail(int statusCode) {
+			if (done.compareAndSet(false, true)) {
+				waitingRequests.decrementAndGet();
+				try {
+					((HttpServletResponse) asyncContext.getResponse()).sendError(statusCode);
+				}
+				catch (IOException e) {
+					LOG.debug("Could not send error to client", e);
+				}
+				finally {
+					asyncContext.complete();
+				}
+			}
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			// not expected, as the request handler answers each poll within its poll timeout
+			fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			// connection is broken, so no response can be sent
+			if (done.compareAndSet(false, true)) {
+				waitingRequests.decrementAndGet();
+				asyncContext.complete();
+			}
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+
+	}
+
 }
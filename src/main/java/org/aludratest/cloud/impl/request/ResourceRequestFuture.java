@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.request;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.aludratest.cloud.resource.Resource;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Future for the resource assigned to a client request. The future is completed exactly once, either with a resource, with an
+ * error message, or by cancellation. On completion, all threads waiting in one of the <code>get()</code> methods are released,
+ * and all registered callbacks are invoked in the completing thread. Callbacks registered after completion are invoked
+ * immediately.
+ */
+final class ResourceRequestFuture implements Future<Resource> {
+
+	private static final Object CANCELLED = new Object();
+
+	// marks the callback list of a completed future
+	private static final CallbackNode COMPLETED = new CallbackNode(null, null);
+
+	private final AtomicReference<Object> outcome = new AtomicReference<Object>();
+
+	private final CountDownLatch doneLatch = new CountDownLatch(1);
+
+	private final AtomicReference<CallbackNode> callbacks = new AtomicReference<CallbackNode>();
+
+	/**
+	 * Completes this future with the given resource.
+	 * 
+	 * @param resource
+	 *            Resource assigned to the request.
+	 * 
+	 * @return <code>true</code> if this future has been completed by this call, <code>false</code> if it had already been
+	 *         completed or cancelled before.
+	 */
+	boolean complete(Resource resource) {
+		if (resource == null) {
+			throw new IllegalArgumentException("resource is null");
+		}
+		return finish(resource);
+	}
+
+	/**
+	 * Completes this future with an error.
+	 * 
+	 * @param errorMessage
+	 *            Error message.
+	 * @param cause
+	 *            Cause of the error, if any.
+	 * 
+	 * @return <code>true</code> if this future has been completed by this call, <code>false</code> if it had already been
+	 *         completed or cancelled before.
+	 */
+	boolean fail(String errorMessage, Throwable cause) {
+		return finish(new Failure(errorMessage, cause));
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(CANCELLED);
+	}
+
+	/**
+	 * Registers a callback which is invoked when this future is completed or cancelled. If this future is already done, the
+	 * callback is invoked immediately in the calling thread.
+	 * 
+	 * @param callback
+	 *            Callback to register.
+	 */
+	void addCallback(CompletionCallback callback) {
+		CallbackNode node = new CallbackNode(callback, null);
+		while (true) {
+			CallbackNode head = callbacks.get();
+			if (head == COMPLETED) {
+				invoke(callback);
+				return;
+			}
+			node.next = head;
+			if (callbacks.compareAndSet(head, node)) {
+				return;
+			}
+		}
+	}
+
+	private boolean finish(Object value) {
+		if (!outcome.compareAndSet(null, value)) {
+			return false;
+		}
+		doneLatch.countDown();
+
+		// callbacks have been pushed in reverse order of registration
+		CallbackNode node = callbacks.getAndSet(COMPLETED);
+		CallbackNode reversed = null;
+		while (node != null) {
+			CallbackNode next = node.next;
+			node.next = reversed;
+			reversed = node;
+			node = next;
+		}
+		for (node = reversed; node != null; node = node.next) {
+			invoke(node.callback);
+		}
+		return true;
+	}
+
+	private void invoke(CompletionCallback callback) {
+		try {
+			callback.completed(this);
+		}
+		catch (RuntimeException e) {
+			LoggerFactory.getLogger(ResourceRequestFuture.class).error("Exception in request completion callback", e);
+		}
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return outcome.get() == CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return outcome.get() != null;
+	}
+
+	/**
+	 * Returns the resource this future has been completed with, without blocking.
+	 * 
+	 * @return The resource this future has been completed with, or <code>null</code> if it is not done yet, has failed or has
+	 *         been cancelled.
+	 */
+	Resource getResourceNow() {
+		Object value = outcome.get();
+		return value instanceof Resource ? (Resource) value : null;
+	}
+
+	@Override
+	public Resource get() throws InterruptedException, ExecutionException {
+		doneLatch.await();
+		return report();
+	}
+
+	@Override
+	public Resource get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!doneLatch.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return report();
+	}
+
+	private Resource report() throws ExecutionException {
+		Object value = outcome.get();
+		if (value == CANCELLED) {
+			throw new CancellationException();
+		}
+		if (value instanceof Failure) {
+			Failure failure = (Failure) value;
+			throw new ExecutionException(failure.errorMessage, failure.cause);
+		}
+		return (Resource) value;
+	}
+
+	/**
+	 * Callback which is invoked when a {@link ResourceRequestFuture} is completed or cancelled. Callbacks are invoked in the
+	 * completing thread, which may be a scheduler thread, so they must return quickly.
+	 */
+	static interface CompletionCallback {
+
+		/**
+		 * Called when the given future has been completed or cancelled.
+		 * 
+		 * @param future
+		 *            Future which is done now.
+		 */
+		public void completed(ResourceRequestFuture future);
+
+	}
+
+	private static final class Failure {
+
+		private final String errorMessage;
+
+		private final Throwable cause;
+
+		private Failure(String errorMessage, Throwable cause) {
+			this.errorMessage = errorMessage;
+			this.cause = cause;
+		}
+
+	}
+
+	private static final class CallbackNode {
+
+		private final CompletionCallback callback;
+
+		private CallbackNode next;
+
+		private CallbackNode(CompletionCallback callback, CallbackNode next) {
+			this.callback = callback;
+			this.next = next;
+		}
+
+	}
+
+}
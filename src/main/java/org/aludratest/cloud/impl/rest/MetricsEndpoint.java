@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.rest;
+
+import java.util.Locale;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import org.aludratest.cloud.impl.app.CloudManagerApplicationHolder;
+import org.aludratest.cloud.impl.metrics.HistogramSnapshot;
+import org.aludratest.cloud.impl.metrics.RequestMetrics;
+import org.aludratest.cloud.impl.metrics.RequestMetrics.Metric;
+import org.aludratest.cloud.rest.AbstractRestConnector;
+import org.aludratest.cloud.rest.RestConnector;
+import org.codehaus.plexus.component.annotations.Component;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * REST endpoint providing the real-time request metrics of {@link RequestMetrics}: wait times, work times and HTTP long-poll
+ * times within the current metrics window, in total, per resource type and, for wait times, per user.
+ */
+@Component(role = RestConnector.class, hint = "metrics")
+@Path("/metrics")
+public class MetricsEndpoint extends AbstractRestConnector {
+
+	/**
+	 * Returns a JSON object containing statistics for all request metrics. Each statistics object contains the fields
+	 * <code>count</code>, <code>meanMillis</code>, <code>p50Millis</code>, <code>p95Millis</code>, <code>p99Millis</code> and
+	 * <code>maxMillis</code>.
+	 * 
+	 * @return A JSON object containing statistics for all request metrics.
+	 * 
+	 * @throws JSONException
+	 *             If a JSON problem occurs.
+	 */
+	@GET
+	@Path("/requests")
+	@Produces(JSON_TYPE)
+	public Response getRequestMetrics() throws JSONException {
+		RequestMetrics metrics = CloudManagerApplicationHolder.getInstance().getRequestMetrics();
+
+		JSONObject result = new JSONObject();
+		result.put("windowSeconds", metrics.getWindowSeconds());
+		for (Metric metric : Metric.values()) {
+			JSONObject obj = toJSON(metrics.getSnapshot(metric));
+			obj.put("perResourceType", toJSON(metrics.getSnapshotsPerResourceType(metric)));
+			if (metric.isTrackedPerUser()) {
+				obj.put("perUser", toJSON(metrics.getSnapshotsPerUser(metric)));
+			}
+			result.put(toPropertyName(metric), obj);
+		}
+
+		return wrapResultObject(result);
+	}
+
+	private static String toPropertyName(Metric metric) {
+		// WAIT_TIME -> waitTime
+		String[] parts = metric.name().toLowerCase(Locale.US).split("_");
+		StringBuilder sb = new StringBuilder(parts[0]);
+		for (int i = 1; i < parts.length; i++) {
+			sb.append(Character.toUpperCase(parts[i].charAt(0))).append(parts[i].substring(1));
+		}
+		return sb.toString();
+	}
+
+	private static JSONObject toJSON(Map<String, HistogramSnapshot> snapshots) throws JSONException {
+		JSONObject result = new JSONObject();
+		for (Map.Entry<String, HistogramSnapshot> entry : snapshots.entrySet()) {
+			result.put(entry.getKey(), toJSON(entry.getValue()));
+		}
+		return result;
+	}
+
+	private static JSONObject toJSON(HistogramSnapshot snapshot) throws JSONException {
+		JSONObject result = new JSONObject();
+		result.put("count", snapshot.getCount());
+		result.put("meanMillis", snapshot.getMean() / 1000.0);
+		result.put("p50Millis", snapshot.getPercentile(50) / 1000.0);
+		result.put("p95Millis", snapshot.getPercentile(95) / 1000.0);
+		result.put("p99Millis", snapshot.getPercentile(99) / 1000.0);
+		result.put("maxMillis", snapshot.getMax() / 1000.0);
+		return result;
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.rest;
+
+import java.util.Locale;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import org.aludratest.cloud.app.CloudManagerApp;
+import org.aludratest.cloud.impl.app.CloudManagerApplicationHolder;
+import org.aludratest.cloud.impl.app.DatabaseRequestLoggerMBean;
+import org.aludratest.cloud.impl.manager.DefaultResourceManagerImplMBean;
+import org.aludratest.cloud.impl.metrics.HistogramSnapshot;
+import org.aludratest.cloud.impl.metrics.RequestMetrics;
+import org.aludratest.cloud.impl.metrics.RequestMetrics.Metric;
+import org.aludratest.cloud.impl.metrics.ResourceGauges;
+import org.aludratest.cloud.manager.ResourceManager;
+import org.aludratest.cloud.resource.ResourceState;
+import org.aludratest.cloud.resourcegroup.ResourceGroup;
+import org.aludratest.cloud.resourcegroup.ResourceGroupManager;
+import org.aludratest.cloud.rest.AbstractRestConnector;
+import org.aludratest.cloud.rest.RestConnector;
+import org.codehaus.plexus.component.annotations.Component;
+
+/**
+ * REST endpoint providing the state of the Cloud Manager in the Prometheus text exposition format, version 0.0.4. All values
+ * are read from counters which are maintained incrementally, so a scrape never iterates over resource collections or waiting
+ * requests, and never blocks the request scheduling.
+ */
+@Component(role = RestConnector.class, hint = "prometheus")
+@Path("/prometheus")
+public class PrometheusEndpoint extends AbstractRestConnector {
+
+	private static final String TEXT_FORMAT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+	/**
+	 * Returns all metrics of the Cloud Manager in the Prometheus text exposition format.
+	 * 
+	 * @return All metrics of the Cloud Manager in the Prometheus text exposition format.
+	 */
+	@GET
+	@Produces(TEXT_FORMAT_TYPE)
+	public Response getMetrics() {
+		StringBuilder sb = new StringBuilder(4096);
+
+		ResourceManager manager = CloudManagerApp.getInstance().getResourceManager();
+		if (manager instanceof DefaultResourceManagerImplMBean) {
+			writeResourceManagerMetrics(sb, (DefaultResourceManagerImplMBean) manager);
+		}
+
+		writeResourceMetrics(sb, CloudManagerApp.getInstance().getResourceGroupManager(), CloudManagerApplicationHolder
+				.getInstance().getResourceGauges());
+
+		DatabaseRequestLoggerMBean logger = CloudManagerApplicationHolder.getInstance().getRequestLogger();
+		if (logger != null) {
+			writeRequestLoggerMetrics(sb, logger);
+		}
+
+		writeRequestMetrics(sb, CloudManagerApplicationHolder.getInstance().getRequestMetrics());
+
+		return Response.ok(sb.toString(), TEXT_FORMAT_TYPE).build();
+	}
+
+	private static void writeResourceManagerMetrics(StringBuilder sb, DefaultResourceManagerImplMBean manager) {
+		writeHeader(sb, "acm_request_queue_size", "gauge", "Number of resource requests waiting for a resource.");
+		for (Map.Entry<String, Integer> entry : manager.getQueueSizePerResourceType().entrySet()) {
+			writeSample(sb, "acm_request_queue_size", new String[] { "resource_type", entry.getKey() }, entry.getValue()
+					.intValue());
+		}
+
+		writeHeader(sb, "acm_running_requests", "gauge", "Number of resources currently used, per resource type and user.");
+		for (Map.Entry<String, Map<String, Integer>> typeEntry : manager.getRunningQueriesPerResourceTypeAndUser().entrySet()) {
+			for (Map.Entry<String, Integer> userEntry : typeEntry.getValue().entrySet()) {
+				writeSample(sb, "acm_running_requests", new String[] { "resource_type", typeEntry.getKey(), "user",
+						userEntry.getKey() }, userEntry.getValue().intValue());
+			}
+		}
+
+		writeHeader(sb, "acm_scheduler_pending_events", "gauge", "Number of events waiting to be processed by the scheduler.");
+		writeSample(sb, "acm_scheduler_pending_events", null, manager.getPendingEventCount());
+
+		writeHeader(sb, "acm_scheduler_event_latency_average_seconds", "gauge",
+				"Average time between queueing and processing of a scheduler event.");
+		writeSample(sb, "acm_scheduler_event_latency_average_seconds", null, manager.getAverageEventLatencyMillis() / 1000.0);
+
+		writeHeader(sb, "acm_scheduler_event_latency_max_seconds", "gauge",
+				"Maximum time between queueing and processing of a scheduler event.");
+		writeSample(sb, "acm_scheduler_event_latency_max_seconds", null, manager.getMaxEventLatencyMillis() / 1000.0);
+	}
+
+	private static void writeResourceMetrics(StringBuilder sb, ResourceGroupManager groupManager, ResourceGauges gauges) {
+		writeHeader(sb, "acm_resources", "gauge", "Number of resources per resource group and state.");
+		for (int groupId : groupManager.getAllResourceGroupIds()) {
+			ResourceGroup group = groupManager.getResourceGroup(groupId);
+			if (group == null) {
+				continue;
+			}
+			String groupName = groupManager.getResourceGroupName(groupId);
+			String typeName = group.getResourceType().getName();
+			for (ResourceState state : ResourceState.values()) {
+				writeSample(sb, "acm_resources",
+						new String[] { "group", Integer.toString(groupId), "group_name", groupName == null ? "" : groupName,
+								"resource_type", typeName, "state", state.name().toLowerCase(Locale.US) },
+						gauges.getCount(group, state));
+			}
+		}
+	}
+
+	private static void writeRequestLoggerMetrics(StringBuilder sb, DatabaseRequestLoggerMBean logger) {
+		writeHeader(sb, "acm_requestlog_queue_size", "gauge", "Number of request log commands waiting to be written.");
+		writeSample(sb, "acm_requestlog_queue_size", null, logger.getQueueSize());
+
+		writeHeader(sb, "acm_requestlog_spill_backlog", "gauge", "Number of request log commands spilled to disk.");
+		writeSample(sb, "acm_requestlog_spill_backlog", null, logger.getSpillBacklog());
+
+		writeHeader(sb, "acm_requestlog_written_commands_total", "counter", "Number of request log commands written.");
+		writeSample(sb, "acm_requestlog_written_commands_total", null, logger.getWrittenCommandCount());
+
+		writeHeader(sb, "acm_requestlog_dropped_commands_total", "counter", "Number of request log commands dropped.");
+		writeSample(sb, "acm_requestlog_dropped_commands_total", null, logger.getDroppedCommandCount());
+	}
+
+	private static void writeRequestMetrics(StringBuilder sb, RequestMetrics metrics) {
+		// window-based values may decrease, so they are exposed as gauges instead of as summaries
+		for (Metric metric : Metric.values()) {
+			String name = "acm_request_" + metric.name().toLowerCase(Locale.US) + "_seconds";
+			HistogramSnapshot snapshot = metrics.getSnapshot(metric);
+
+			writeHeader(sb, name, "gauge", "Quantiles of " + metric.name().toLowerCase(Locale.US).replace('_', ' ')
+					+ " within the last " + metrics.getWindowSeconds() + " seconds.");
+			for (double quantile : QUANTILES) {
+				writeSample(sb, name, new String[] { "quantile", Double.toString(quantile) },
+						snapshot.getPercentile(quantile * 100) / 1000000.0);
+			}
+
+			writeHeader(sb, name + "_window_count", "gauge", "Number of values within the last " + metrics.getWindowSeconds()
+					+ " seconds.");
+			writeSample(sb, name + "_window_count", null, snapshot.getCount());
+		}
+	}
+
+	private static void writeHeader(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void writeSample(StringBuilder sb, String name, String[] labels, double value) {
+		sb.append(name);
+		if (labels != null && labels.length > 0) {
+			sb.append('{');
+			for (int i = 0; i < labels.length; i += 2) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(labels[i]).append("=\"");
+				appendEscaped(sb, labels[i + 1]);
+				sb.append('"');
+			}
+			sb.append('}');
+		}
+		sb.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			sb.append((long) value);
+		}
+		else {
+			sb.append(value);
+		}
+		sb.append('\n');
+	}
+
+	private static void appendEscaped(StringBuilder sb, String labelValue) {
+		for (int i = 0; i < labelValue.length(); i++) {
+			char c = labelValue.charAt(i);
+			switch (c) {
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+	}
+
+}
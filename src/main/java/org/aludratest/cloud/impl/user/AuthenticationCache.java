@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010-2015 AludraTest.org and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.cloud.impl.user;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aludratest.cloud.user.User;
+import org.aludratest.cloud.user.UserDatabase;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Cache for successful verifications of HTTP Basic Authentication headers. Entries are keyed by a salted SHA-256 digest of the
+ * header value, so no credentials are kept in memory. Each entry expires after a fixed time to live, and the least recently used
+ * entries are evicted when the maximum size is reached. <br>
+ * The time to live can be configured using the system property <code>acm.auth.cacheTtlSeconds</code> (default 60; 0 disables
+ * the cache), the maximum size using <code>acm.auth.cacheSize</code> (default 1000). <br>
+ * User databases invalidate the entries of a user when its password changes or the user is deleted. To not re-insert a
+ * verification which has been started before such an invalidation, callers read the current {@link #getGeneration() generation}
+ * before verifying credentials and pass it to {@link #put(String, UserDatabase, User, long)}. <br>
+ * Changes which are not made through the user database, e.g. manual edits of the local user database file, do not invalidate
+ * the cache; old credentials stay valid until their entries expire, or until the cache is cleared via JMX.
+ * 
+ */
+public final class AuthenticationCache implements AuthenticationCacheMBean {
+
+	private final byte[] salt = new byte[16];
+
+	private final int maxSize;
+
+	private final long ttlMillis;
+
+	// guarded by itself
+	private final Map<String, CacheEntry> entries;
+
+	// incremented on every invalidation; guarded by entries
+	private long generation;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	AuthenticationCache() {
+		maxSize = Integer.getInteger("acm.auth.cacheSize", 1000).intValue();
+		ttlMillis = TimeUnit.SECONDS.toMillis(Long.getLong("acm.auth.cacheTtlSeconds", 60).longValue());
+		new SecureRandom().nextBytes(salt);
+		entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the user cached for the given authentication header, if the cached verification is still valid.
+	 * 
+	 * @param authHeader
+	 *            Value of the <code>Authorization</code> HTTP header.
+	 * @param userDatabase
+	 *            Currently selected user database. Entries verified by another user database are ignored.
+	 * @return The cached user, or <code>null</code> if there is no valid cache entry for the header.
+	 */
+	User get(String authHeader, UserDatabase userDatabase) {
+		if (ttlMillis <= 0) {
+			return null;
+		}
+
+		String key = digest(authHeader);
+		CacheEntry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && (entry.expires < System.currentTimeMillis() || entry.userDatabase != userDatabase)) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.user;
+	}
+
+	/**
+	 * Returns the current generation of this cache, which changes whenever cached verifications are invalidated. Must be read
+	 * before the credentials are verified.
+	 * 
+	 * @return The current generation of this cache.
+	 */
+	long getGeneration() {
+		synchronized (entries) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Caches a successful verification of the given authentication header, unless verifications have been invalidated since the
+	 * given generation has been read.
+	 * 
+	 * @param authHeader
+	 *            Value of the <code>Authorization</code> HTTP header.
+	 * @param userDatabase
+	 *            User database which has verified the credentials.
+	 * @param user
+	 *            Authenticated user.
+	 * @param verifiedGeneration
+	 *            Generation of this cache as returned by {@link #getGeneration()} before the credentials have been verified.
+	 */
+	void put(String authHeader, UserDatabase userDatabase, User user, long verifiedGeneration) {
+		if (ttlMillis <= 0) {
+			return;
+		}
+
+		String key = digest(authHeader);
+		CacheEntry entry = new CacheEntry(user, userDatabase, System.currentTimeMillis() + ttlMillis);
+		synchronized (entries) {
+			// verification could have used credentials which have been changed in the meantime
+			if (generation == verifiedGeneration) {
+				entries.put(key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached verifications for the given user.
+	 * 
+	 * @param user
+	 *            User whose credentials or attributes have changed, or who has been deleted.
+	 */
+	void invalidate(User user) {
+		synchronized (entries) {
+			generation++;
+			Iterator<CacheEntry> iter = entries.values().iterator();
+			while (iter.hasNext()) {
+				User u = iter.next().user;
+				if (u.getName().equals(user.getName()) && u.getSource().equals(user.getSource())) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (entries) {
+			generation++;
+			entries.clear();
+		}
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public long getTimeToLiveSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(ttlMillis);
+	}
+
+	private String digest(String authHeader) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(salt);
+			md.update(authHeader.getBytes("UTF-8"));
+			return Base64.encodeBase64String(md.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 algorithm is unsupported on this machine", e);
+		}
+		catch (UnsupportedEncodingException e) {
+			// no UTF-8??
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class CacheEntry {
+
+		private final User user;
+
+		private final UserDatabase userDatabase;
+
+		private final long expires;
+
+		public CacheEntry(User user, UserDatabase userDatabase, long expires) {
+			this.user = user;
+			this.userDatabase = userDatabase;
+			this.expires = expires;
+		}
+
+	}
+
+}
@@ -32,7 +32,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Helper methods for dealing with HTTP Basic Authentication.
+ * Helper methods for dealing with HTTP Basic Authentication. Successful verifications of credentials are cached for a short
+ * time, see {@link AuthenticationCache}.
  * 
  * @author falbrech
  * 
@@ -41,6 +42,10 @@ public final class BasicAuthUtil {
 
 	private static final Logger LOG = LoggerFactory.getLogger(BasicAuthUtil.class);
 
+	private static final Pattern AUTH_PATTERN = Pattern.compile("Basic (.+)");
+
+	private static final AuthenticationCache CACHE = new AuthenticationCache();
+
 	private BasicAuthUtil() {
 	}
 	
@@ -59,12 +64,20 @@ public final class BasicAuthUtil {
 	 *             If the HTTP header value has an invalid format.
 	 */
 	public static User authenticate(String authHeader) throws StoreException, IllegalArgumentException {
-		Pattern pAuth = Pattern.compile("Basic (.+)");
-		Matcher m = pAuth.matcher(authHeader);
+		Matcher m = AUTH_PATTERN.matcher(authHeader);
 		if (!m.matches()) {
 			throw new IllegalArgumentException();
 		}
 
+		UserDatabase userDatabase = CloudManagerApp.getInstance().getSelectedUserDatabase();
+		User user = CACHE.get(authHeader, userDatabase);
+		if (user != null) {
+			return user;
+		}
+
+		// read before verifying, so a concurrent invalidation prevents caching the result
+		long cacheGeneration = CACHE.getGeneration();
+
 		String userPass;
 		try {
 			userPass = new String(Base64.decodeBase64(m.group(1)), "UTF-8");
@@ -83,16 +96,35 @@ public final class BasicAuthUtil {
 			throw new IllegalArgumentException();
 		}
 
-		UserDatabase userDatabase = CloudManagerApp.getInstance().getSelectedUserDatabase();
-		User user;
 		if (userDatabase == null || (user = userDatabase.authenticate(up[0], up[1])) == null) {
 			throw new IllegalArgumentException();
 		}
 
+		CACHE.put(authHeader, userDatabase, user, cacheGeneration);
 		return user;
 
 	}
 
+	/**
+	 * Removes all cached credential verifications for the given user. User databases must call this method when the password of
+	 * a user changes, or when a user is deleted.
+	 * 
+	 * @param user
+	 *            User to remove cached credential verifications for.
+	 */
+	public static void invalidate(User user) {
+		CACHE.invalidate(user);
+	}
+
+	/**
+	 * Returns the cache for credential verifications, e.g. to register it in an MBean server.
+	 * 
+	 * @return The cache for credential verifications.
+	 */
+	public static AuthenticationCacheMBean getAuthenticationCache() {
+		return CACHE;
+	}
+
 	/**
 	 * Checks the given HTTP request for an <code>Authorization</code> header and performs authentication using
 	 * {@link #authenticate(String)}. When no <code>Authorization</code> header is present, a request for authentication is sent
@@ -23,10 +23,16 @@ import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.aludratest.cloud.impl.app.CloudManagerApplicationHolder;
 import org.aludratest.cloud.user.StoreException;
@@ -35,27 +41,59 @@ import org.aludratest.cloud.user.UserDatabase;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
 import org.databene.commons.Filter;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Implementation of a user database based on a file <code>~/.atcloudmanager/users.json</code>. This implementation is quite
- * simple and straightforward; its performance will decrease with an increasing number of users.
+ * Implementation of a user database based on a file <code>~/.atcloudmanager/users.json</code>. <br>
+ * The file is loaded once into an immutable in-memory index, so read operations do not lock and do not touch the file system.
+ * Modifications replace the index and are written back asynchronously (to a temporary file which is then renamed), shortly after
+ * the last modification and when the component is disposed. If writing fails, it is retried with increasing delay until it
+ * succeeds. The file is checked for external modifications at most every two seconds, and reloaded if it has changed and no own
+ * modifications are pending.
  * 
  * @author falbrech
  * 
  */
 @Component(role = UserDatabase.class, hint = LocalUserDatabaseImpl.HINT)
-public class LocalUserDatabaseImpl implements UserDatabase {
+public class LocalUserDatabaseImpl implements UserDatabase, Disposable {
 
 	/**
 	 * Plexus Hint of this component.
 	 */
 	public static final String HINT = "local-file";
 	
+	private static final Logger LOG = LoggerFactory.getLogger(LocalUserDatabaseImpl.class);
+
 	private static final String DB_FILE = "users.json";
 
+	private static final long FILE_CHECK_INTERVAL = 2000;
+
+	private static final long FLUSH_DELAY = 500;
+
+	private static final long MAX_FLUSH_RETRY_DELAY = 60000;
+
+	private volatile UserIndex index;
+
+	// guarded by this
+	private boolean dirty;
+
+	// guarded by this
+	private boolean flushScheduled;
+
+	// guarded by this
+	private long flushRetryDelay = FLUSH_DELAY;
+
+	// guarded by this
+	private ScheduledExecutorService flushService;
+
+	// serializes file writes
+	private final Object writeLock = new Object();
+
 	@Override
 	public String getSource() {
 		return HINT;
@@ -63,48 +101,30 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 
 	@Override
 	public Iterator<User> getAllUsers(Filter<User> userFilter) throws StoreException {
-		JSONObject contents = load();
-
-		try {
-			List<User> result = new ArrayList<User>();
-			JSONObject users = contents.getJSONObject("users");
-			Iterator<?> iter = users.keys();
-
-			while (iter.hasNext()) {
-				String userName = iter.next().toString();
-				JSONObject o = users.getJSONObject(userName);
-				LocalUserImpl user = new LocalUserImpl(userName, toMap(o.getJSONObject("attributes")));
-
-				if (userFilter == null || userFilter.accept(user)) {
-					result.add(user);
-				}
+		List<User> result = new ArrayList<User>();
+		for (Map.Entry<String, UserRecord> entry : getIndex().users.entrySet()) {
+			LocalUserImpl user = new LocalUserImpl(entry.getKey(), entry.getValue().attributes);
+			if (userFilter == null || userFilter.accept(user)) {
+				result.add(user);
 			}
-
-			return result.iterator();
-		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
 		}
+
+		return result.iterator();
 	}
 
 	@Override
 	public User authenticate(String userName, String password) throws StoreException {
-		JSONObject contents = load();
+		UserRecord record = getIndex().users.get(userName);
+		if (record == null) {
+			return null;
+		}
 
 		try {
-			JSONObject users = contents.getJSONObject("users");
-			if (!users.has(userName)) {
-				return null;
-			}
-			JSONObject userObject = users.getJSONObject(userName);
 			String hash = calculateHash(userName, password);
-			if (userObject.getString("passwordHash").equals(hash)) {
-				return new LocalUserImpl(userName, toMap(userObject.getJSONObject("attributes")));
+			if (record.passwordHash.equals(hash)) {
+				return new LocalUserImpl(userName, record.attributes);
 			}
 		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
-		}
 		catch (NoSuchAlgorithmException e) {
 			throw new StoreException("SHA-1 algorithm is unsupported on this machine");
 		}
@@ -114,20 +134,8 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 
 	@Override
 	public User findUser(String userName) throws StoreException {
-		JSONObject contents = load();
-
-		try {
-			JSONObject users = contents.getJSONObject("users");
-			if (!users.has(userName)) {
-				return null;
-			}
-
-			JSONObject o = users.getJSONObject(userName);
-			return new LocalUserImpl(userName, toMap(o.getJSONObject("attributes")));
-		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
-		}
+		UserRecord record = getIndex().users.get(userName);
+		return record == null ? null : new LocalUserImpl(userName, record.attributes);
 	}
 
 	@Override
@@ -136,111 +144,86 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 	}
 
 	@Override
-	public void delete(User user) throws StoreException {
+	public synchronized void delete(User user) throws StoreException {
 		if (!user.getSource().equals(getSource())) {
 			throw new StoreException("Unsupported user object: Source is " + user.getSource() + " instead of " + getSource());
 		}
-		JSONObject contents = load();
 
-		try {
-			JSONObject users = contents.getJSONObject("users");
-			if (users.has(user.getName())) {
-				users.remove(user.getName());
-				save(contents);
-			}
-		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
+		Map<String, UserRecord> users = copyUsers();
+		if (users.remove(user.getName()) != null) {
+			update(users);
+			BasicAuthUtil.invalidate(user);
 		}
 	}
 
 	@Override
-	public User create(String userName) throws IllegalArgumentException, StoreException {
-		JSONObject contents = load();
+	public synchronized User create(String userName) throws IllegalArgumentException, StoreException {
+		Map<String, UserRecord> users = copyUsers();
+		if (users.containsKey(userName)) {
+			throw new IllegalArgumentException("User " + userName + " does already exist");
+		}
 
 		try {
-			JSONObject users = contents.getJSONObject("users");
-			if (users.has(userName)) {
-				throw new IllegalArgumentException("User " + userName + " does already exist");
-			}
-
-			JSONObject newUserObject = new JSONObject();
-			newUserObject.put("passwordHash", calculateHash(userName, "password"));
-			newUserObject.put("attributes", new JSONObject());
-			users.put(userName, newUserObject);
-
-			save(contents);
-
-			return new LocalUserImpl(userName, new HashMap<String, String>());
-		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
+			users.put(userName, new UserRecord(calculateHash(userName, "password"), new HashMap<String, String>()));
 		}
 		catch (NoSuchAlgorithmException e) {
 			throw new StoreException("SHA-1 algorithm is unsupported on this machine");
 		}
+		update(users);
+
+		return new LocalUserImpl(userName, new HashMap<String, String>());
 	}
 
 	@Override
-	public void changePassword(User user, String newPassword) throws StoreException {
+	public synchronized void changePassword(User user, String newPassword) throws StoreException {
 		if (!user.getSource().equals(getSource())) {
 			throw new StoreException("Unsupported user object: Source is " + user.getSource() + " instead of " + getSource());
 		}
 
-		JSONObject contents = load();
+		Map<String, UserRecord> users = copyUsers();
+		UserRecord record = users.get(user.getName());
+		if (record == null) {
+			throw new IllegalArgumentException("User " + user.getName() + " does not exist");
+		}
 
 		try {
-			JSONObject users = contents.getJSONObject("users");
-			if (!users.has(user.getName())) {
-				throw new IllegalArgumentException("User " + user.getName() + " does not exist");
-			}
-
-			JSONObject userObject = users.getJSONObject(user.getName());
-			userObject.put("passwordHash", calculateHash(user.getName(), newPassword));
-
-			save(contents);
-		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
+			users.put(user.getName(), new UserRecord(calculateHash(user.getName(), newPassword), record.attributes));
 		}
 		catch (NoSuchAlgorithmException e) {
 			throw new StoreException("SHA-1 algorithm is unsupported on this machine");
 		}
+		update(users);
+		BasicAuthUtil.invalidate(user);
 	}
 
 	@Override
-	public void modifyUserAttribute(User user, String attributeKey, String newAttributeValue) throws StoreException {
+	public synchronized void modifyUserAttribute(User user, String attributeKey, String newAttributeValue)
+			throws StoreException {
 		if (!user.getSource().equals(getSource())) {
 			throw new StoreException("Unsupported user object: Source is " + user.getSource() + " instead of " + getSource());
 		}
 		LocalUserImpl localUser = (LocalUserImpl) user;
 
-		JSONObject contents = load();
-
-		try {
-			JSONObject users = contents.getJSONObject("users");
-			if (!users.has(user.getName())) {
-				throw new IllegalArgumentException("User " + user.getName() + " does not exist");
-			}
-
-			JSONObject userObject = users.getJSONObject(user.getName());
-			Map<String, String> attributes = toMap(userObject.getJSONObject("attributes"));
-			if (newAttributeValue == null) {
-				attributes.remove(attributeKey);
-			}
-			else {
-				attributes.put(attributeKey, newAttributeValue);
-			}
-			// inject into user object
-			localUser.setAttributes(attributes);
-
-			userObject.put("attributes", new JSONObject(attributes));
+		Map<String, UserRecord> users = copyUsers();
+		UserRecord record = users.get(user.getName());
+		if (record == null) {
+			throw new IllegalArgumentException("User " + user.getName() + " does not exist");
+		}
 
-			save(contents);
+		Map<String, String> attributes = new HashMap<String, String>(record.attributes);
+		if (newAttributeValue == null) {
+			attributes.remove(attributeKey);
 		}
-		catch (JSONException e) {
-			throw new StoreException("Unexpected format expection", e);
+		else {
+			attributes.put(attributeKey, newAttributeValue);
 		}
+		// inject into user object
+		localUser.setAttributes(attributes);
+
+		users.put(user.getName(), new UserRecord(record.passwordHash, attributes));
+		update(users);
+		// cached user objects would still carry the old attributes
+		BasicAuthUtil.invalidate(user);
 	}
 	
 	@Override
@@ -249,6 +232,25 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 		return true;
 	}
 
+	@Override
+	public void dispose() {
+		ScheduledExecutorService service;
+		synchronized (this) {
+			service = flushService;
+			flushService = null;
+		}
+		if (service != null) {
+			service.shutdownNow();
+		}
+
+		try {
+			flush();
+		}
+		catch (StoreException e) {
+			LOG.error("Could not write local user database on shutdown", e);
+		}
+	}
+
 	/**
 	 * This method is protected only for unit test classes (otherwise, would be private).
 	 * 
@@ -258,7 +260,7 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 	 *             If contents could not be stored.
 	 */
 	protected JSONObject load() throws StoreException {
-		File dbFile = new File(CloudManagerApplicationHolder.getInstance().getConfigurationDirectory(), DB_FILE);
+		File dbFile = getDbFile();
 
 		if (!dbFile.isFile()) {
 			JSONObject empty = new JSONObject();
@@ -288,7 +290,8 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 	}
 
 	/**
-	 * This method is protected only for unit test classes (otherwise, would be private).
+	 * This method is protected only for unit test classes (otherwise, would be private). The contents are written to a temporary
+	 * file first, which then replaces the database file, so readers never see a partially written file.
 	 * 
 	 * @param contents
 	 *            Contents to store.
@@ -297,12 +300,14 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 	 *             If contents could not be stored.
 	 */
 	protected void save(JSONObject contents) throws StoreException {
-		File dbFile = new File(CloudManagerApplicationHolder.getInstance().getConfigurationDirectory(), DB_FILE);
+		File dbFile = getDbFile();
+		File tempFile = new File(dbFile.getParentFile(), DB_FILE + ".tmp");
 
 		FileOutputStream fos = null;
 		try {
-			fos = new FileOutputStream(dbFile);
+			fos = new FileOutputStream(tempFile);
 			fos.write(contents.toString().getBytes("UTF-8"));
+			fos.getFD().sync();
 		}
 		catch (IOException e) {
 			throw new StoreException("Could not write local user database", e);
@@ -310,6 +315,167 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 		finally {
 			IOUtils.closeQuietly(fos);
 		}
+
+		// on some platforms, rename does not replace existing files
+		if (!tempFile.renameTo(dbFile) && !(dbFile.delete() && tempFile.renameTo(dbFile))) {
+			throw new StoreException("Could not replace local user database " + dbFile.getAbsolutePath());
+		}
+	}
+
+	private File getDbFile() {
+		return new File(CloudManagerApplicationHolder.getInstance().getConfigurationDirectory(), DB_FILE);
+	}
+
+	private UserIndex getIndex() throws StoreException {
+		UserIndex current = index;
+		long now = System.currentTimeMillis();
+		if (current != null && now - current.lastCheck < FILE_CHECK_INTERVAL) {
+			return current;
+		}
+
+		synchronized (this) {
+			current = index;
+			File dbFile = getDbFile();
+			// own pending modifications win over external ones
+			if (current == null || (!dirty && !current.isUpToDate(dbFile))) {
+				long lastModified = dbFile.lastModified();
+				long length = dbFile.length();
+				current = new UserIndex(dbFile, lastModified, length, parse(load()));
+				index = current;
+			}
+			current.lastCheck = now;
+			return current;
+		}
+	}
+
+	private Map<String, UserRecord> copyUsers() throws StoreException {
+		return new LinkedHashMap<String, UserRecord>(getIndex().users);
+	}
+
+	private synchronized void update(Map<String, UserRecord> users) {
+		UserIndex current = index;
+		UserIndex updated = new UserIndex(current.file, current.lastModified, current.length, users);
+		updated.lastCheck = current.lastCheck;
+		index = updated;
+		dirty = true;
+
+		if (!flushScheduled) {
+			scheduleFlush(FLUSH_DELAY);
+		}
+	}
+
+	private synchronized void scheduleFlush(long delay) {
+		if (flushService == null) {
+			flushService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ACM Local User Database Writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		flushService.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+					synchronized (LocalUserDatabaseImpl.this) {
+						flushRetryDelay = FLUSH_DELAY;
+					}
+				}
+				catch (StoreException e) {
+					retryFlush(e);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		flushScheduled = true;
+	}
+
+	private synchronized void retryFlush(StoreException cause) {
+		// do not retry after dispose(), which writes pending modifications itself
+		if (flushService == null) {
+			LOG.error("Could not write local user database", cause);
+			return;
+		}
+
+		flushRetryDelay = Math.min(flushRetryDelay * 2, MAX_FLUSH_RETRY_DELAY);
+		LOG.error("Could not write local user database, will retry in " + flushRetryDelay + " ms", cause);
+		if (!flushScheduled) {
+			scheduleFlush(flushRetryDelay);
+		}
+	}
+
+	private void flush() throws StoreException {
+		synchronized (writeLock) {
+			UserIndex snapshot;
+			synchronized (this) {
+				flushScheduled = false;
+				if (!dirty) {
+					return;
+				}
+				snapshot = index;
+				dirty = false;
+			}
+
+			try {
+				save(toJSON(snapshot.users));
+			}
+			catch (StoreException e) {
+				synchronized (this) {
+					dirty = true;
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				// remember file state, so the own write is not detected as external modification
+				if (index == snapshot) {
+					UserIndex written = new UserIndex(snapshot.file, snapshot.file.lastModified(), snapshot.file.length(),
+							snapshot.users);
+					written.lastCheck = snapshot.lastCheck;
+					index = written;
+				}
+			}
+		}
+	}
+
+	private static Map<String, UserRecord> parse(JSONObject contents) throws StoreException {
+		try {
+			Map<String, UserRecord> result = new LinkedHashMap<String, UserRecord>();
+			JSONObject users = contents.getJSONObject("users");
+			Iterator<?> iter = users.keys();
+
+			while (iter.hasNext()) {
+				String userName = iter.next().toString();
+				JSONObject o = users.getJSONObject(userName);
+				result.put(userName, new UserRecord(o.getString("passwordHash"), toMap(o.getJSONObject("attributes"))));
+			}
+
+			return result;
+		}
+		catch (JSONException e) {
+			throw new StoreException("Unexpected format expection", e);
+		}
+	}
+
+	private static JSONObject toJSON(Map<String, UserRecord> users) throws StoreException {
+		try {
+			JSONObject usersObject = new JSONObject();
+			for (Map.Entry<String, UserRecord> entry : users.entrySet()) {
+				JSONObject userObject = new JSONObject();
+				userObject.put("passwordHash", entry.getValue().passwordHash);
+				userObject.put("attributes", new JSONObject(entry.getValue().attributes));
+				usersObject.put(entry.getKey(), userObject);
+			}
+
+			JSONObject contents = new JSONObject();
+			contents.put("users", usersObject);
+			return contents;
+		}
+		catch (JSONException e) {
+			throw new StoreException("Could not create JSON for local user database", e);
+		}
 	}
 
 	private static Map<String, String> toMap(JSONObject obj) throws JSONException {
@@ -343,4 +509,43 @@ public class LocalUserDatabaseImpl implements UserDatabase {
 			throw new RuntimeException(e);
 		}
 	}
+
+	private static class UserRecord {
+
+		private final String passwordHash;
+
+		private final Map<String, String> attributes;
+
+		public UserRecord(String passwordHash, Map<String, String> attributes) {
+			this.passwordHash = passwordHash;
+			this.attributes = Collections.unmodifiableMap(new HashMap<String, String>(attributes));
+		}
+
+	}
+
+	private static class UserIndex {
+
+		private final File file;
+
+		private final long lastModified;
+
+		private final long length;
+
+		// never modified after creation
+		private final Map<String, UserRecord> users;
+
+		private volatile long lastCheck;
+
+		public UserIndex(File file, long lastModified, long length, Map<String, UserRecord> users) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.users = users;
+		}
+
+		public boolean isUpToDate(File file) {
+			return this.file.equals(file) && file.lastModified() == lastModified && file.length() == length;
+		}
+
+	}
 }